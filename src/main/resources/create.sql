@@ -1,14 +1,18 @@
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    Iterations int,
+    KeyLength int,
     PRIMARY KEY (Username)
 );
 
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    Iterations int,
+    KeyLength int,
     PRIMARY KEY (Username)
 );
 
@@ -36,3 +40,33 @@ CREATE TABLE Reservations (
     FOREIGN KEY (CaregiverUsername) REFERENCES Caregivers(Username),
     FOREIGN KEY (VaccineName) REFERENCES Vaccines(Name)
 );
+
+CREATE TABLE DoseFlushes (
+    FlushID varchar(36),
+    FlushedAt datetime2 DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (FlushID)
+);
+
+-- dose movements not yet folded into Vaccines.Doses, see migrations/V3__dose_ledger.sql; no foreign
+-- key to Vaccines, see migrations/V5__ledger_without_vaccine_lock.sql
+CREATE TABLE DoseLedger (
+    EntryID bigint IDENTITY,
+    VaccineName varchar(255) NOT NULL,
+    Reason varchar(16) NOT NULL,
+    Doses bigint NOT NULL,
+    FlushID varchar(36) NOT NULL,
+    RecordedAt datetime2 DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (EntryID)
+);
+
+-- Indexes, see migrations/V2__workload_indexes.sql and V3__dose_ledger.sql. The scheduler applies
+-- the scripts in migrations/ at startup, so a database created from this file is adopted by the
+-- first one.
+CREATE INDEX IX_Reservations_Patient ON Reservations (PatientUsername, AppointmentID)
+    INCLUDE (CaregiverUsername, VaccineName, AppointmentTime);
+CREATE INDEX IX_Reservations_Caregiver ON Reservations (CaregiverUsername, AppointmentID)
+    INCLUDE (PatientUsername, VaccineName, AppointmentTime);
+CREATE INDEX IX_Reservations_Vaccine ON Reservations (VaccineName);
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
+CREATE INDEX IX_DoseFlushes_FlushedAt ON DoseFlushes (FlushedAt);
+CREATE INDEX IX_DoseLedger_Vaccine ON DoseLedger (VaccineName) INCLUDE (Doses);
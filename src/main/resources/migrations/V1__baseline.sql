@@ -0,0 +1,72 @@
+-- The schema of create.sql. Every step is skipped when it is already there, so databases
+-- that were created by hand from create.sql are adopted as they are.
+
+IF OBJECT_ID('Patients') IS NULL
+CREATE TABLE Patients (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash VARBINARY(64),
+    Iterations int,
+    KeyLength int,
+    PRIMARY KEY (Username)
+);
+GO
+
+IF OBJECT_ID('Caregivers') IS NULL
+CREATE TABLE Caregivers (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash VARBINARY(64),
+    Iterations int,
+    KeyLength int,
+    PRIMARY KEY (Username)
+);
+GO
+
+-- databases from before the hash parameters were stored
+IF COL_LENGTH('Patients', 'Iterations') IS NULL
+ALTER TABLE Patients ADD Iterations int, KeyLength int;
+GO
+
+IF COL_LENGTH('Caregivers', 'Iterations') IS NULL
+ALTER TABLE Caregivers ADD Iterations int, KeyLength int;
+GO
+
+IF OBJECT_ID('Availabilities') IS NULL
+CREATE TABLE Availabilities (
+    Time date,
+    Username varchar(255),
+    PRIMARY KEY (Time, Username),
+    FOREIGN KEY (Username) REFERENCES Caregivers(Username)
+);
+GO
+
+IF OBJECT_ID('Vaccines') IS NULL
+CREATE TABLE Vaccines (
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Name)
+);
+GO
+
+IF OBJECT_ID('Reservations') IS NULL
+CREATE TABLE Reservations (
+    AppointmentID int IDENTITY,
+    PatientUsername varchar(255),
+    CaregiverUsername varchar(255),
+    VaccineName varchar(255),
+    AppointmentTime date,
+    PRIMARY KEY (AppointmentID),
+    FOREIGN KEY (PatientUsername) REFERENCES Patients(Username),
+    FOREIGN KEY (CaregiverUsername) REFERENCES Caregivers(Username),
+    FOREIGN KEY (VaccineName) REFERENCES Vaccines(Name)
+);
+GO
+
+IF OBJECT_ID('DoseFlushes') IS NULL
+CREATE TABLE DoseFlushes (
+    FlushID varchar(36),
+    FlushedAt datetime2 DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (FlushID)
+);
+GO
@@ -0,0 +1,30 @@
+-- Indexes for the queries the scheduler actually runs. Only primary keys existed before, so
+-- show_appointments scanned Reservations and deleting from a parent table scanned every child.
+
+-- show_appointments for a patient: seek by patient, already in AppointmentID order, no lookups
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_Patient')
+CREATE INDEX IX_Reservations_Patient ON Reservations (PatientUsername, AppointmentID)
+    INCLUDE (CaregiverUsername, VaccineName, AppointmentTime);
+GO
+
+-- show_appointments for a caregiver
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_Caregiver')
+CREATE INDEX IX_Reservations_Caregiver ON Reservations (CaregiverUsername, AppointmentID)
+    INCLUDE (PatientUsername, VaccineName, AppointmentTime);
+GO
+
+-- supports the foreign key to Vaccines
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_Vaccine')
+CREATE INDEX IX_Reservations_Vaccine ON Reservations (VaccineName);
+GO
+
+-- supports the foreign key to Caregivers; the primary key leads with Time, which serves
+-- search_caregiver_schedule, reserve and cancel but not lookups by caregiver
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Availabilities_Username')
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
+GO
+
+-- pruning old flush ids by age
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_DoseFlushes_FlushedAt')
+CREATE INDEX IX_DoseFlushes_FlushedAt ON DoseFlushes (FlushedAt);
+GO
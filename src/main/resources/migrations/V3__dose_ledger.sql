@@ -0,0 +1,21 @@
+-- Vaccine doses as an append-only ledger. Each dose flush inserts its movements here instead of
+-- updating Vaccines, which becomes the balance snapshot; compaction moves entries into it. Reading
+-- a balance is Vaccines.Doses plus the vaccine's entries still in the ledger.
+
+IF OBJECT_ID('DoseLedger') IS NULL
+CREATE TABLE DoseLedger (
+    EntryID bigint IDENTITY,
+    VaccineName varchar(255) NOT NULL,
+    Reason varchar(16) NOT NULL,
+    Doses bigint NOT NULL,
+    FlushID varchar(36) NOT NULL,
+    RecordedAt datetime2 DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (EntryID),
+    FOREIGN KEY (VaccineName) REFERENCES Vaccines(Name)
+);
+GO
+
+-- summing the tail per vaccine when the balances are read
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_DoseLedger_Vaccine')
+CREATE INDEX IX_DoseLedger_Vaccine ON DoseLedger (VaccineName) INCLUDE (Doses);
+GO
@@ -0,0 +1,15 @@
+-- create.sql used to declare Hash as BINARY(16), which only holds a 128-bit key. Widen it for
+-- databases created from that version so longer HashKeyLength settings can be stored; existing
+-- hashes keep their bytes (the trailing zeros of the padded ones are ignored on login).
+
+IF EXISTS (SELECT * FROM sys.columns c JOIN sys.types t ON t.user_type_id = c.user_type_id
+           WHERE c.object_id = OBJECT_ID('Patients') AND c.name = 'Hash'
+           AND (t.name <> 'varbinary' OR c.max_length BETWEEN 0 AND 63))
+ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(64);
+GO
+
+IF EXISTS (SELECT * FROM sys.columns c JOIN sys.types t ON t.user_type_id = c.user_type_id
+           WHERE c.object_id = OBJECT_ID('Caregivers') AND c.name = 'Hash'
+           AND (t.name <> 'varbinary' OR c.max_length BETWEEN 0 AND 63))
+ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(64);
+GO
@@ -0,0 +1,11 @@
+-- Checking DoseLedger's foreign key reads the Vaccines row with a shared lock, and compaction holds
+-- that row exclusively while it folds the ledger into it, so every dose flush and booking of the
+-- vaccine waited for the compaction. Ledger entries only ever name vaccines the scheduler loaded
+-- from Vaccines, and vaccines are never deleted, so the key is dropped and inserts leave Vaccines alone.
+
+DECLARE @constraint sysname = (SELECT name FROM sys.foreign_keys
+                               WHERE parent_object_id = OBJECT_ID('DoseLedger')
+                               AND referenced_object_id = OBJECT_ID('Vaccines'));
+IF @constraint IS NOT NULL
+EXEC ('ALTER TABLE DoseLedger DROP CONSTRAINT ' + @constraint);
+GO
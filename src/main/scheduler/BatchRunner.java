@@ -0,0 +1,108 @@
+package scheduler;
+
+import scheduler.util.Json;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a file or stream of commands without the interactive prompt, for nightly loads and replays.
+ * Consecutive upload_availability or add_doses lines are combined (see Session.executeRun).
+ * Every command produces one JSON line on the results stream:
+ *   {"line":3,"command":"reserve","ok":true,"micros":1520,"output":"Appointment ID: 7, Caregiver username: bob"}
+ * and a throughput summary goes to stderr at the end.
+ */
+public class BatchRunner {
+
+    // upper bound on how many lines are combined into one run
+    private static final int MAX_RUN = 1000;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Session session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+    private final PrintStream results;
+
+    private int lineNumber = 0;
+    private int commands = 0;
+    private int failures = 0;
+
+    public BatchRunner(PrintStream results) {
+        this.results = results;
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    line = in.readLine();
+                    continue;
+                }
+                if (!Session.isGroupable(line)) {
+                    long commandStart = System.nanoTime();
+                    boolean keepGoing = session.execute(line);
+                    report(lineNumber, line, System.nanoTime() - commandStart);
+                    if (!keepGoing) {
+                        break;
+                    }
+                    line = in.readLine();
+                    continue;
+                }
+
+                // collect the run of lines with the same command
+                String operation = line.split(" ")[0];
+                List<String> run = new ArrayList<>();
+                run.add(line);
+                int firstLine = lineNumber;
+                String next;
+                while ((next = in.readLine()) != null) {
+                    String trimmed = next.trim();
+                    if (run.size() == MAX_RUN || !Session.isGroupable(trimmed) || !trimmed.startsWith(operation + " ")) {
+                        break;
+                    }
+                    lineNumber++;
+                    run.add(trimmed);
+                }
+                runGroup(firstLine, run);
+                line = next;
+            }
+        } finally {
+            results.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.println(String.format("Ran %d commands (%d failed) in %.3f s, %.1f commands/s",
+                    commands, failures, seconds, seconds == 0 ? 0 : commands / seconds));
+        }
+    }
+
+    private void runGroup(int firstLine, List<String> run) {
+        long start = System.nanoTime();
+        long[] last = {start};
+        session.executeRun(run, i -> {
+            long now = System.nanoTime();
+            report(firstLine + i, run.get(i), now - last[0]);
+            last[0] = now;
+        });
+    }
+
+    private void report(int line, String command, long nanos) {
+        String output = new String(buffer.toByteArray(), StandardCharsets.UTF_8).trim();
+        buffer.reset();
+        boolean ok = !session.lastCommandFailed();
+        commands++;
+        if (!ok) {
+            failures++;
+        }
+        results.println("{\"line\":" + line
+                + ",\"command\":" + Json.quote(command.split(" ")[0])
+                + ",\"ok\":" + ok
+                + ",\"micros\":" + nanos / 1000
+                + ",\"output\":" + Json.quote(output) + "}");
+    }
+}
@@ -1,541 +1,148 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
-import scheduler.model.Caregiver;
-import scheduler.model.Patient;
-import scheduler.model.Vaccine;
-import scheduler.util.Util;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.db.Repositories;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.sql.Date;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
-
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
-
-        // read input from user
-        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
-        while (true) {
-            System.out.print("> ");
-            String response = "";
+        // --server [port] serves the same commands over TCP instead of reading them from the console
+        // --script <file> and --batch (stdin) run commands without the prompt and print JSON results
+        String mode = args.length > 0 ? args[0] : "";
+        boolean serverMode = mode.equals("--server");
+        boolean batchMode = mode.equals("--script") || mode.equals("--batch");
+        // keep stdout clean for the JSON results in batch mode
+        PrintStream console = batchMode ? System.err : System.out;
+
+        // check the arguments before the database is touched
+        int port = Config.getInt("ServerPort", 4141);
+        if (serverMode && args.length > 1) {
             try {
-                response = r.readLine();
-            } catch (IOException e) {
-                System.out.println("Please try again!");
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                port = -1;
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
-            } else {
-                System.out.println("Invalid operation name!");
+            if (port < 0 || port > 65535) {
+                System.err.println("Usage: --server [port]");
+                System.exit(1);
             }
         }
-    }
-
-    private static void createPatient(String[] tokens) {
-        // create_patient <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("User name taken, try again!");
-            return;
+        if (mode.equals("--script") && args.length < 2) {
+            System.err.println("Usage: --script <file>");
+            System.exit(1);
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // create the patient
-        try {
-            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
-            // save to patient information to our database
-            patient.saveToDB();
-            System.out.println("Created patient " + username);
-        } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
-        }
-    }
-
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+        if (!serverMode && !batchMode) {
+            // printing greetings text
+            printGreeting(System.out);
         }
-        return true;
-    }
 
-    private static void createCaregiver(String[] tokens) {
-        // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("User name taken, try again!");
-            return;
-        }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // create the caregiver
-        try {
-            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
-            // save to caregiver information to our database
-            caregiver.saveToDB();
-            System.out.println("Created caregiver " + username);
-        } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
-        }
-    }
-
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        // write the stats to StatsFile periodically, if it is set
+        Metrics.get().startDumping();
 
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+        // apply any schema migrations before the tables are read; the scheduler does not run on a schema
+        // it could not bring up to date
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            Repositories.get().migrate();
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            console.println("Could not migrate the database schema: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalStateException e) {
+            console.println(e.getMessage());
+            System.exit(1);
         }
-        return true;
-    }
 
-    private static void loginPatient(String[] tokens) {
-        // login_patient <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentPatient != null || currentCaregiver != null) {
-            System.out.println("User already logged in.");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-
-        Patient patient = null;
+        // load the in-memory availability index; if that fails, searches fall back to the database
         try {
-            patient = new Patient.PatientGetter(username, password).get();
+            AvailabilityIndex.getInstance().load();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
-        }
-        // check if the login was successful
-        if (patient == null) {
-            System.out.println("Login failed.");
-        } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
-        }
-    }
-
-    private static void loginCaregiver(String[] tokens) {
-        // login_caregiver <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
-
-        Caregiver caregiver = null;
-        try {
-            caregiver = new Caregiver.CaregiverGetter(username, password).get();
-        } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
-        }
-        // check if the login was successful
-        if (caregiver == null) {
-            System.out.println("Login failed.");
-        } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
-        }
-    }
-
-    private static void searchCaregiverSchedule(String[] tokens) {
-        // searchCaregiverSchedule <date>
-        // check 1: check if the current user has logged in
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+            console.println("Could not load caregiver availabilities, searching the database instead.");
         }
-        String date = tokens[1];
+        // load the vaccine dose counts, finishing any flush that was cut short by a crash
         try {
-            Date d = Date.valueOf(date);
-            searchSchedule(d);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again!");
+            DoseInventory.getInstance().load();
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
+            console.println("Could not load vaccine doses, will retry on first use.");
         }
-    }
-
-    private static void searchSchedule(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String schedule = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String vaccine = "SELECT * FROM Vaccines";
-
-        try {
-            // Check for available schedule
-            PreparedStatement scheduleStatement = con.prepareStatement(schedule);
-            scheduleStatement.setDate(1, d);
-            ResultSet scheduleResultSet = scheduleStatement.executeQuery();
-
-            // Check for vaccine availability
-            PreparedStatement vaccineStatement = con.prepareStatement(vaccine);
-            ResultSet vaccineResultSet = vaccineStatement.executeQuery();
 
-            System.out.println("Available caregivers:");
-            while (scheduleResultSet.next()) {
-                System.out.println(scheduleResultSet.getString(1));
-            }
-            System.out.println("Available doses:");
-            while (vaccineResultSet.next()) {
-                System.out.println(vaccineResultSet.getString(1) + " " + vaccineResultSet.getInt(2));
+        if (serverMode) {
+            try {
+                new SchedulerServer(port).serve();
+            } catch (IOException e) {
+                System.out.println("Could not start the server on port " + port);
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
-    }
-
-    private static void reserve(String[] tokens) {
-        // reserve <date> <vaccine>
-        // check 1: check if the current logged-in user is a patient
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
-            return;
-        }
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
             return;
         }
-        String date = tokens[1];
-        String vaccine = tokens[2];
-        try {
-            Date d = Date.valueOf(date);
-            currentPatient.reserve(d,vaccine);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again!");
-        } catch (SQLException e) {
-            System.out.println("Please try again");
-            e.printStackTrace();
-        }
-    }
-
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String date = tokens[1];
-        try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
-        }
-    }
-
-    private static void cancel(String[] tokens) {
-        // cancel <appointment_id>
-        // check 1: check if the user is logged in
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
-        }
-        int appointmentId;
-        try {
-            appointmentId = Integer.parseInt(tokens[1]);
-            cancelApp(appointmentId);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again!");
-        } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
-        }
-    }
-
-    private static void cancelApp(int appointmentId) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String checkAppointment = "SELECT PatientUsername, CaregiverUsername, AppointmentTime FROM Reservations WHERE AppointmentID = ?";
-        String deleteAppointment = "DELETE FROM Reservations WHERE AppointmentID = ?";
-        String addAvailability = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
 
-        try {
-            // Check if the appointment is associated with the current user
-            PreparedStatement checkAppointmentStatement = con.prepareStatement(checkAppointment);
-            checkAppointmentStatement.setInt(1, appointmentId);
-            ResultSet rs = checkAppointmentStatement.executeQuery();
-
-            if (!rs.next() || (currentPatient != null && !rs.getString("PatientUsername").equals(currentPatient.getUsername())) && (currentCaregiver != null && !rs.getString("CaregiverUsername").equals(currentCaregiver.getUsername()))) {
-                System.out.println("Appointment not found or not associated with the current user.");
-            } else {
-                // Delete the appointment
-                PreparedStatement deleteAppointmentStatement = con.prepareStatement(deleteAppointment);
-                deleteAppointmentStatement.setInt(1, appointmentId);
-                deleteAppointmentStatement.executeUpdate();
-
-                // Add availability back to the caregiver
-                PreparedStatement addAvailabilityStatement = con.prepareStatement(addAvailability);
-                addAvailabilityStatement.setDate(1, rs.getDate("AppointmentTime"));
-                addAvailabilityStatement.setString(2, rs.getString("CaregiverUsername"));
-                addAvailabilityStatement.executeUpdate();
-                System.out.println("Successfully cancelled appointment.");
+        if (batchMode) {
+            try (BufferedReader in = mode.equals("--script")
+                    ? Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)
+                    : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+                new BatchRunner(System.out).run(in);
+            } catch (IOException e) {
+                System.err.println("Could not read commands: " + e.getMessage());
             }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
-    }
-
-
-    private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
-        try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
-        }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
-            }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
+
+        // read input from user
+        Session session = new Session(System.out);
+        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        while (true) {
+            System.out.print("> ");
+            String response = "";
             try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                response = r.readLine();
+            } catch (IOException e) {
+                System.out.println("Please try again!");
             }
-        }
-        System.out.println("Doses updated!");
-    }
-
-    private static void showAppointments(String[] tokens) {
-        // showAppointments
-        // check 1: check if the current user has logged in
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 1 to include all information (with the operation name)
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
-            return;
-        }
-        try {
-            showApp();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again!");
-        } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
-        }
-    }
-
-    private static void showApp() throws SQLException{
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String patientAppointments= "SELECT AppointmentID, VaccineName, AppointmentTime, CaregiverUsername FROM Reservations WHERE PatientUsername = ? ORDER BY AppointmentID";
-        String caregiverAppointments = "SELECT AppointmentID, VaccineName, AppointmentTime, PatientUsername FROM Reservations WHERE CaregiverUsername = ? ORDER BY AppointmentID";
-
-        try {
-            PreparedStatement ps;
-            if (currentPatient != null) {
-                ps = con.prepareStatement(patientAppointments);
-                ps.setString(1, currentPatient.getUsername());
-            } else {
-                ps = con.prepareStatement(caregiverAppointments);
-                ps.setString(1, currentCaregiver.getUsername());
+            // end of input behaves like quit
+            if (response == null) {
+                return;
             }
-
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                int appointmentId = rs.getInt(1);
-                String vaccineName = rs.getString(2);
-                Date appointmentDate = rs.getDate(3);
-                String otherUsername = rs.getString(4);
-
-                System.out.print("Appointment ID: " + appointmentId + ", Vaccine Name: " + vaccineName + ", Appointment Date: " + appointmentDate);
-                if (currentPatient != null) {
-                    System.out.println(", Caregiver Name: " + otherUsername);
-                } else {
-                    System.out.println(", Patient Name: " + otherUsername);
-                }
+            if (!session.execute(response)) {
+                return;
             }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first.");
-            return;
-        }
-        try {
-            currentPatient = null;
-            currentCaregiver = null;
-            System.out.println("Successfully logged out!");
-        } catch (Exception e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
-        }
+    static void printGreeting(PrintStream out) {
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> import_patients <csv_file>");
+        out.println("> import_caregivers <csv_file>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> resume_session <token>");
+        out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> search_caregiver_schedule <from> <to>");
+        out.println("> reserve <date> <vaccine> [--wait]");  // TODO: implement reserve (Part 2)
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability <from> <to> [daily|weekdays|weekends|mon,wed,...]");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> cancel_day <date>");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> show_appointments [--after <appointment_id>] [--limit <n>] [--from <date>] [--to <date>]");
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> stats");
+        out.println("> quit");
+        out.println();
+
     }
 }
@@ -0,0 +1,98 @@
+package scheduler;
+
+import scheduler.util.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the scheduler's command set over TCP, one line per command, with the same output the
+ * console shows. Every connection gets its own Session; all of them share the connection pool,
+ * the availability index and the dose inventory.
+ */
+public class SchedulerServer {
+
+    private final int port;
+    private final Semaphore clients;
+    private final ExecutorService executor;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+        this.clients = new Semaphore(Math.max(1, Config.getInt("ServerMaxClients", 10_000)));
+        this.executor = newClientExecutor();
+    }
+
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Listening on port " + port);
+            while (true) {
+                Socket socket = serverSocket.accept();
+                if (!clients.tryAcquire()) {
+                    rejectBusy(socket);
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        handle(socket);
+                    } finally {
+                        clients.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false, "UTF-8")) {
+            Scheduler.printGreeting(out);
+            Session session = new Session(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null || !session.execute(line.trim())) {
+                    break;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private void rejectBusy(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write("Server busy, please try again later!\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // nothing to tell a client that is already gone
+        }
+    }
+
+    // one virtual thread per connection when the JVM has them (Java 21+), otherwise one platform thread
+    private static ExecutorService newClientExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-client");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
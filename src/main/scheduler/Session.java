@@ -0,0 +1,947 @@
+package scheduler;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.SessionCache;
+import scheduler.db.Repositories;
+import scheduler.db.ReservationRepository;
+import scheduler.db.TransactionExecutor;
+import scheduler.importer.AccountImporter;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.Tracer;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.queue.ReservationQueue;
+import scheduler.queue.Waitlist;
+import scheduler.util.Config;
+import scheduler.util.DateRange;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+
+/**
+ * The state of one client: who is logged in and where output goes.
+ * Every command is handled here, so the interactive REPL and the network server share the same code.
+ */
+public class Session {
+
+    // objects to keep track of the user logged in to this session
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // the SessionCache token of the user logged in to this session
+    private String sessionToken = null;
+
+    // send reserve through the batching ReservationQueue instead of booking on the calling thread
+    private static final boolean QUEUE_RESERVATIONS = Config.getBoolean("ReservationQueue", false);
+    // appointments per show_appointments page, unless --limit says otherwise
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    // characters of output collected before they are written out
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private final PrintStream out;
+    // set when the last command printed an error instead of doing its job
+    private boolean failed = false;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    public boolean lastCommandFailed() {
+        return failed;
+    }
+
+    private void fail(String message) {
+        failed = true;
+        out.println(message);
+    }
+
+    // runs one command line, returns false once the client asked to quit
+    public boolean execute(String response) {
+        failed = false;
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            fail("Please try again!");
+            return true;
+        }
+        String command = commandName(tokens[0]);
+        Metrics metrics = Metrics.get();
+        Tracer tracer = Tracer.get();
+        long roundTrips = metrics.getRoundTrips();
+        tracer.beginCommand(command);
+        long start = System.nanoTime();
+        boolean keepGoing = dispatch(tokens);
+        long nanos = System.nanoTime() - start;
+        tracer.endCommand(nanos, failed);
+        metrics.recordCommand(command, nanos, failed, metrics.getRoundTrips() - roundTrips);
+        return keepGoing;
+    }
+
+    // a session that timed out, was logged out elsewhere or was evicted from the SessionCache ends here too
+    private void checkSession() {
+        if (sessionToken != null && SessionCache.getInstance().get(sessionToken) == null) {
+            currentPatient = null;
+            currentCaregiver = null;
+            sessionToken = null;
+            out.println("Your session has ended, please login again.");
+        }
+    }
+
+    private boolean dispatch(String[] tokens) {
+        // determine which operation to perform
+        String operation = tokens[0];
+        checkSession();
+        if (operation.equals("create_patient")) {
+            createPatient(tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens);
+        } else if (operation.equals("import_patients")) {
+            importAccounts(tokens, AccountImporter.AccountType.PATIENT);
+        } else if (operation.equals("import_caregivers")) {
+            importAccounts(tokens, AccountImporter.AccountType.CAREGIVER);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens);
+        } else if (operation.equals("resume_session")) {
+            resumeSession(tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens);
+        } else if (operation.equals("cancel_day")) {
+            cancelDay(tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens);
+        } else if (operation.equals("logout")) {
+            logout(tokens);
+        } else if (operation.equals("stats")) {
+            Metrics.get().print(out);
+        } else if (operation.equals("quit")) {
+            out.println("Bye!");
+            return false;
+        } else {
+            fail("Invalid operation name!");
+        }
+        return true;
+    }
+
+    // typos are counted together, so they cannot fill the stats with one entry each
+    private static String commandName(String operation) {
+        switch (operation) {
+            case "create_patient":
+            case "create_caregiver":
+            case "import_patients":
+            case "import_caregivers":
+            case "login_patient":
+            case "login_caregiver":
+            case "resume_session":
+            case "search_caregiver_schedule":
+            case "reserve":
+            case "upload_availability":
+            case "cancel":
+            case "cancel_day":
+            case "add_doses":
+            case "show_appointments":
+            case "logout":
+            case "stats":
+            case "quit":
+                return operation;
+            default:
+                return "invalid";
+        }
+    }
+
+    private void createPatient(String[] tokens) {
+        // create_patient <username> <password>
+        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Failed to create user.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        // check 2: check if the username has been taken already
+        if (usernameExistsPatient(username)) {
+            fail("User name taken, try again!");
+            return;
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(password, salt);
+        // create the patient
+        try {
+            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            // save to patient information to our database
+            patient.saveToDB();
+            out.println("Created patient " + username);
+        } catch (SQLException e) {
+            fail("Failed to create user.");
+            e.printStackTrace();
+        }
+    }
+
+    private boolean usernameExistsPatient(String username) {
+        try {
+            return Repositories.get().patients().exists(username);
+        } catch (SQLException e) {
+            fail("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private void createCaregiver(String[] tokens) {
+        // create_caregiver <username> <password>
+        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Failed to create user.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        // check 2: check if the username has been taken already
+        if (usernameExistsCaregiver(username)) {
+            fail("User name taken, try again!");
+            return;
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(password, salt);
+        // create the caregiver
+        try {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
+            // save to caregiver information to our database
+            caregiver.saveToDB();
+            out.println("Created caregiver " + username);
+        } catch (SQLException e) {
+            fail("Failed to create user.");
+            e.printStackTrace();
+        }
+    }
+
+    private boolean usernameExistsCaregiver(String username) {
+        try {
+            return Repositories.get().caregivers().exists(username);
+        } catch (SQLException e) {
+            fail("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private void importAccounts(String[] tokens, AccountImporter.AccountType type) {
+        // import_patients <csv_file> / import_caregivers <csv_file>
+        // check 1: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            AccountImporter.Result result = new AccountImporter(type).importFile(Paths.get(tokens[1]));
+            for (String failure : result.getFailures()) {
+                out.println("Skipped " + failure);
+            }
+            out.println(String.format("Imported %d accounts, skipped %d, in %.2f s (%.0f rows/s)",
+                    result.getImported(), result.getFailures().size(), result.getSeconds(), result.getRowsPerSecond()));
+        } catch (IOException e) {
+            fail("Could not read " + tokens[1]);
+        } catch (SQLException e) {
+            fail("Error occurred when importing accounts");
+            e.printStackTrace();
+        }
+    }
+
+    private void loginPatient(String[] tokens) {
+        // login_patient <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentPatient != null || currentCaregiver != null) {
+            fail("User already logged in.");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Login failed.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Patient patient = null;
+        try {
+            patient = new Patient.PatientGetter(username, password).get();
+        } catch (SQLException e) {
+            fail("Login failed.");
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // the password hashing pool is saturated
+            fail("Login failed.");
+        }
+        // check if the login was successful
+        if (patient == null) {
+            fail("Login failed.");
+        } else {
+            out.println("Logged in as: " + username);
+            currentPatient = patient;
+            sessionToken = SessionCache.getInstance().issue(patient);
+            out.println("Session token: " + sessionToken);
+        }
+    }
+
+    private void loginCaregiver(String[] tokens) {
+        // login_caregiver <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            fail("User already logged in.");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Login failed.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Caregiver caregiver = null;
+        try {
+            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (SQLException e) {
+            fail("Login failed.");
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // the password hashing pool is saturated
+            fail("Login failed.");
+        }
+        // check if the login was successful
+        if (caregiver == null) {
+            fail("Login failed.");
+        } else {
+            out.println("Logged in as: " + username);
+            currentCaregiver = caregiver;
+            sessionToken = SessionCache.getInstance().issue(caregiver);
+            out.println("Session token: " + sessionToken);
+        }
+    }
+
+    private void resumeSession(String[] tokens) {
+        // resume_session <token>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            fail("User already logged in.");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        // the token stands for a login that was already checked, no need to look the user up again
+        SessionCache.Principal principal = SessionCache.getInstance().get(tokens[1]);
+        if (principal == null) {
+            fail("Session not found or expired, please login again.");
+            return;
+        }
+        currentPatient = principal.getPatient();
+        currentCaregiver = principal.getCaregiver();
+        sessionToken = tokens[1];
+        out.println("Logged in as: " + (currentPatient != null ? currentPatient.getUsername()
+                : currentCaregiver.getUsername()));
+    }
+
+    private void searchCaregiverSchedule(String[] tokens) {
+        // searchCaregiverSchedule <date>
+        // searchCaregiverSchedule <from> <to>
+        // check 1: check if the current user has logged in
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 2 for a single date, or 3 for a range
+        if (tokens.length != 2 && tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            if (tokens.length == 3) {
+                Date to = Date.valueOf(tokens[2]);
+                DateRange.check(d, to);
+                searchScheduleRange(d, to);
+            } else {
+                searchSchedule(d);
+            }
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    private void searchSchedule(Date d) throws SQLException {
+        // Check for available schedule, from memory when the index holds this date
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<String> caregivers;
+        if (index.covers(d)) {
+            caregivers = index.getCaregivers(d);
+        } else {
+            caregivers = Repositories.get().availabilities().findCaregivers(d);
+        }
+
+        // Check for vaccine availability, the in-process inventory holds the current counts
+        Map<String, Integer> doses = DoseInventory.getInstance().getAllDoses();
+
+        out.println("Available caregivers:");
+        for (String caregiver : caregivers) {
+            out.println(caregiver);
+        }
+        out.println("Available doses:");
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            out.println(vaccine.getKey() + " " + vaccine.getValue());
+        }
+    }
+
+    // the number of caregivers per date and the first date anyone is available, from the index's
+    // running counts when it holds the range, or from one grouped query when it does not
+    private void searchScheduleRange(Date from, Date to) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        Map<Date, Integer> counts;
+        if (index.covers(from)) {
+            counts = index.countCaregivers(from, to);
+        } else {
+            counts = Repositories.get().availabilities().countByDay(from, to);
+        }
+        Map<String, Integer> doses = DoseInventory.getInstance().getAllDoses();
+
+        if (counts.isEmpty()) {
+            out.println("No caregivers available from " + from + " to " + to);
+        } else {
+            out.println("Available caregivers per date:");
+            for (Map.Entry<Date, Integer> day : counts.entrySet()) {
+                out.println(day.getKey() + " " + day.getValue());
+            }
+            out.println("Earliest available date: " + counts.keySet().iterator().next());
+        }
+        out.println("Available doses:");
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            out.println(vaccine.getKey() + " " + vaccine.getValue());
+        }
+    }
+
+    private void reserve(String[] tokens) {
+        // reserve <date> <vaccine> [--wait]
+        // check 1: check if the current logged-in user is a patient
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first");
+            return;
+        }
+        if (currentCaregiver != null) {
+            fail("Please login as a patient!");
+            return;
+        }
+        // check 2: the length for tokens need to be 3 to include all information (with the operation name),
+        //          or 4 with --wait
+        boolean wait = tokens.length == 4 && tokens[3].equals("--wait");
+        if (tokens.length != 3 && !wait) {
+            fail("Please try again!");
+            return;
+        }
+        String date = tokens[1];
+        String vaccine = tokens[2];
+        try {
+            Date d = Date.valueOf(date);
+            Reservation reservation = QUEUE_RESERVATIONS ? reserveQueued(d, vaccine) : currentPatient.reserve(d, vaccine);
+            if (reservation == null) {
+                fail("Too many reservations right now, please try again later!");
+            } else if (reservation.isBooked()) {
+                // booked by hand, so a place on the waitlist for it is not needed any more
+                Waitlist.getInstance().withdraw(currentPatient.getUsername(), d, vaccine);
+                out.println(reservation.getMessage());
+            } else if (wait) {
+                // booked for the patient once a caregiver or doses come in, see show_appointments
+                if (Waitlist.getInstance().add(currentPatient.getUsername(), d, vaccine)) {
+                    out.println(reservation.getMessage() + " Added to the waitlist for " + d + " " + vaccine + ".");
+                } else {
+                    out.println(reservation.getMessage() + " Already on the waitlist for " + d + " " + vaccine + ".");
+                }
+            } else {
+                fail(reservation.getMessage());
+            }
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
+        } catch (SQLException e) {
+            fail("Please try again");
+            e.printStackTrace();
+        }
+    }
+
+    // books through the ReservationQueue; null if the queue is full or did not get to it in time
+    private Reservation reserveQueued(Date d, String vaccine) throws SQLException {
+        ReservationQueue queue = ReservationQueue.getInstance();
+        CompletableFuture<Reservation> result = queue.submit(currentPatient.getUsername(), vaccine, d);
+        try {
+            // the queue fails the request at its deadline, the extra second only guards against a stuck worker
+            return result.get(queue.getTimeoutMillis() + 1_000, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            return null;
+        } catch (TimeoutException e) {
+            return withdraw(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return withdraw(result);
+        }
+    }
+
+    // The patient is told to try again, so the request must not be booked after all: the queue skips a
+    // cancelled request and cancels a booking it was making meanwhile. If the result came in first, it
+    // is returned instead.
+    private static Reservation withdraw(CompletableFuture<Reservation> result) throws SQLException {
+        if (result.cancel(false)) {
+            return null;
+        }
+        try {
+            return result.getNow(null);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            return null;
+        }
+    }
+
+    private void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <from> <to> [daily|weekdays|weekends|mon,wed,...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 2 for a single date, or 3 to 4 for a range
+        if (tokens.length < 2 || tokens.length > 4) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            if (tokens.length == 2) {
+                Date d = Date.valueOf(tokens[1]);
+                currentCaregiver.uploadAvailability(d);
+                out.println("Availability uploaded!");
+            } else {
+                Date from = Date.valueOf(tokens[1]);
+                Date to = Date.valueOf(tokens[2]);
+                List<Date> dates = DateRange.expand(from, to, tokens.length == 4 ? tokens[3] : null);
+                int added = currentCaregiver.uploadAvailabilities(dates);
+                out.println("Availability uploaded for " + added + " dates (" + (dates.size() - added) + " already uploaded)!");
+            }
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    private void cancel(String[] tokens) {
+        // cancel <appointment_id>
+        // check 1: check if the user is logged in
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+            cancelApp(appointmentId);
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    private void cancelApp(int appointmentId) throws SQLException {
+        // the ownership check, the delete and giving the slot back are one atomic operation
+        String patientUsername = currentPatient != null ? currentPatient.getUsername() : null;
+        String caregiverUsername = currentCaregiver != null ? currentCaregiver.getUsername() : null;
+        Appointment appointment = TransactionExecutor.getInstance().run("cancel",
+                () -> Repositories.get().reservations().cancel(appointmentId, patientUsername, caregiverUsername));
+        if (appointment == null) {
+            fail("Appointment not found or not associated with the current user.");
+            return;
+        }
+        released(Collections.singletonList(appointment), true);
+        out.println("Successfully cancelled appointment.");
+    }
+
+    private void cancelDay(String[] tokens) {
+        // cancel_day <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            List<Appointment> cancelled = TransactionExecutor.getInstance().run("cancel_day",
+                    () -> Repositories.get().reservations().cancelDay(d, currentCaregiver.getUsername()));
+            // the caregiver's slot is gone, not free again, so nobody on the waitlist is offered it
+            AvailabilityIndex.getInstance().remove(d, currentCaregiver.getUsername());
+            released(cancelled, false);
+            out.println("Cancelled " + cancelled.size() + " appointments on " + d + ".");
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    // after cancelled appointments are deleted: the doses go back, and the slots are free again unless
+    // the caregiver called the day off
+    private void released(List<Appointment> appointments, boolean slotsFreed) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        CaregiverLoad load = CaregiverLoad.getInstance();
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        Set<Date> dates = new LinkedHashSet<>();
+        for (Appointment appointment : appointments) {
+            if (slotsFreed) {
+                index.add(appointment.getTime(), appointment.getCaregiverUsername());
+            }
+            load.cancelled(appointment.getCaregiverUsername());
+            doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+            dates.add(appointment.getTime());
+        }
+        DoseInventory inventory = DoseInventory.getInstance();
+        Waitlist waitlist = Waitlist.getInstance();
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            inventory.returned(vaccine.getKey(), vaccine.getValue());
+            waitlist.dosesAdded(vaccine.getKey());
+        }
+        if (slotsFreed) {
+            waitlist.availabilityAdded(dates);
+        }
+    }
+
+
+    private void addDoses(String[] tokens) {
+        // add_doses <vaccine> <number>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        String vaccineName = tokens[1];
+        int doses = parseDoses(tokens[2]);
+        if (doses <= 0) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            applyDoses(vaccineName, doses);
+            out.println("Doses updated!");
+        } catch (SQLException e) {
+            fail("Error occurred when adding doses");
+            e.printStackTrace();
+        }
+    }
+
+    // returns -1 if the number is not a positive integer
+    private static int parseDoses(String number) {
+        try {
+            return Math.max(-1, Integer.parseInt(number));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void applyDoses(String vaccineName, int doses) throws SQLException {
+        Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
+        //          table
+        if (vaccine == null) {
+            vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+            vaccine.saveToDB();
+        } else {
+            // if the vaccine is not null, meaning that the vaccine already exists in our table
+            vaccine.increaseAvailableDoses(doses);
+        }
+        Waitlist.getInstance().dosesAdded(vaccineName);
+    }
+
+    // true for commands that executeRun can combine with their neighbours
+    public static boolean isGroupable(String line) {
+        String[] tokens = line.split(" ");
+        return (tokens[0].equals("upload_availability") && tokens.length == 2)
+                || (tokens[0].equals("add_doses") && tokens.length == 3);
+    }
+
+    // Runs consecutive lines of the same groupable command as one unit of work: all dates of an
+    // upload_availability run go to the database in one batch and one transaction, and an add_doses run
+    // applies one combined change per vaccine. done is called after the output of each line is written.
+    public void executeRun(List<String> lines, IntConsumer done) {
+        String operation = lines.get(0).split(" ")[0];
+        checkSession();
+        if (currentCaregiver == null || lines.size() == 1) {
+            // nothing to combine, the commands fail or run on their own
+            for (int i = 0; i < lines.size(); i++) {
+                execute(lines.get(i));
+                done.accept(i);
+            }
+            return;
+        }
+        // every line is charged an equal share of the run
+        Metrics metrics = Metrics.get();
+        Tracer tracer = Tracer.get();
+        long roundTrips = metrics.getRoundTrips();
+        tracer.beginCommand(operation);
+        long start = System.nanoTime();
+        boolean[] lineFailed = new boolean[lines.size()];
+        IntConsumer record = i -> {
+            lineFailed[i] = failed;
+            done.accept(i);
+        };
+        if (operation.equals("upload_availability")) {
+            uploadAvailabilityRun(lines, record);
+        } else {
+            addDosesRun(lines, record);
+        }
+        long nanos = System.nanoTime() - start;
+        // traced as one command, since the lines share their statements
+        boolean anyFailed = false;
+        for (boolean lineFailure : lineFailed) {
+            anyFailed |= lineFailure;
+        }
+        tracer.endCommand(nanos, anyFailed);
+        long nanosPerLine = nanos / lines.size();
+        long tripsPerLine = (metrics.getRoundTrips() - roundTrips) / lines.size();
+        for (boolean lineFailure : lineFailed) {
+            metrics.recordCommand(operation, nanosPerLine, lineFailure, tripsPerLine);
+        }
+    }
+
+    private void uploadAvailabilityRun(List<String> lines, IntConsumer done) {
+        Date[] dates = new Date[lines.size()];
+        List<Date> valid = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                dates[i] = Date.valueOf(lines.get(i).split(" ")[1]);
+                valid.add(dates[i]);
+            } catch (IllegalArgumentException e) {
+                dates[i] = null;
+            }
+        }
+        boolean uploaded = true;
+        try {
+            currentCaregiver.uploadAvailabilities(valid);
+        } catch (SQLException e) {
+            uploaded = false;
+            e.printStackTrace();
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            failed = false;
+            if (dates[i] == null) {
+                fail("Please enter a valid date!");
+            } else if (!uploaded) {
+                fail("Error occurred when uploading availability");
+            } else {
+                out.println("Availability uploaded!");
+            }
+            done.accept(i);
+        }
+    }
+
+    private void addDosesRun(List<String> lines, IntConsumer done) {
+        // total per vaccine, in the order the vaccines first appear
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        String[] names = new String[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] tokens = lines.get(i).split(" ");
+            int doses = parseDoses(tokens[2]);
+            if (doses > 0) {
+                names[i] = tokens[1];
+                totals.merge(tokens[1], doses, Integer::sum);
+            }
+        }
+        Set<String> failedVaccines = new HashSet<>();
+        for (Map.Entry<String, Integer> total : totals.entrySet()) {
+            try {
+                applyDoses(total.getKey(), total.getValue());
+            } catch (SQLException e) {
+                failedVaccines.add(total.getKey());
+                e.printStackTrace();
+            }
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            failed = false;
+            if (names[i] == null) {
+                fail("Please try again!");
+            } else if (failedVaccines.contains(names[i])) {
+                fail("Error occurred when adding doses");
+            } else {
+                out.println("Doses updated!");
+            }
+            done.accept(i);
+        }
+    }
+
+    private void showAppointments(String[] tokens) {
+        // show_appointments [--after <appointment_id>] [--limit <n>] [--from <date>] [--to <date>]
+        // check 1: check if the current user has logged in
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first!");
+            return;
+        }
+        // check 2: every option needs a value, so the token count (with the operation name) is odd
+        if (tokens.length % 2 != 1) {
+            fail("Please try again!");
+            return;
+        }
+        int afterId = 0;
+        int limit = DEFAULT_PAGE_SIZE;
+        Date from = null;
+        Date to = null;
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                String value = tokens[i + 1];
+                switch (tokens[i]) {
+                    case "--after":
+                        afterId = Integer.parseInt(value);
+                        break;
+                    case "--limit":
+                        limit = Integer.parseInt(value);
+                        break;
+                    case "--from":
+                        from = Date.valueOf(value);
+                        break;
+                    case "--to":
+                        to = Date.valueOf(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + tokens[i]);
+                }
+            }
+            if (afterId < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Option out of range");
+            }
+            showApp(afterId, limit, from, to);
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    // prints one page, keyed on the appointment id, so each page costs the same however long the history is
+    private void showApp(int afterId, int limit, Date from, Date to) throws SQLException {
+        ReservationRepository reservations = Repositories.get().reservations();
+        boolean isPatient = currentPatient != null;
+        String newLine = System.lineSeparator();
+        // rows are appended to one buffer and written in large pieces instead of a println per field
+        StringBuilder page = new StringBuilder(OUTPUT_BUFFER_SIZE + 256);
+        int[] lastId = {afterId};
+        ReservationRepository.AppointmentConsumer printer = (appointmentId, patient, caregiver, vaccine, time) -> {
+            page.append("Appointment ID: ").append(appointmentId)
+                    .append(", Vaccine Name: ").append(vaccine)
+                    .append(", Appointment Date: ").append(time)
+                    .append(isPatient ? ", Caregiver Name: " : ", Patient Name: ")
+                    .append(isPatient ? caregiver : patient)
+                    .append(newLine);
+            lastId[0] = appointmentId;
+            if (page.length() >= OUTPUT_BUFFER_SIZE) {
+                out.append(page);
+                page.setLength(0);
+            }
+        };
+        int count = isPatient
+                ? reservations.forEachByPatient(currentPatient.getUsername(), afterId, from, to, limit, printer)
+                : reservations.forEachByCaregiver(currentCaregiver.getUsername(), afterId, from, to, limit, printer);
+        if (count == limit) {
+            // a full page, there may be more
+            page.append("More appointments: show_appointments --after ").append(lastId[0]);
+            if (limit != DEFAULT_PAGE_SIZE) {
+                page.append(" --limit ").append(limit);
+            }
+            if (from != null) {
+                page.append(" --from ").append(from);
+            }
+            if (to != null) {
+                page.append(" --to ").append(to);
+            }
+            page.append(newLine);
+        }
+        out.append(page);
+    }
+
+    private void logout(String[] tokens) {
+        if (currentPatient == null && currentCaregiver == null) {
+            fail("Please login first.");
+            return;
+        }
+        try {
+            // the token cannot be used to resume the session any more
+            if (sessionToken != null) {
+                SessionCache.getInstance().invalidate(sessionToken);
+                sessionToken = null;
+            }
+            currentPatient = null;
+            currentCaregiver = null;
+            out.println("Successfully logged out!");
+        } catch (Exception e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package scheduler.bench;
+
+import scheduler.Session;
+import scheduler.cache.CaregiverSelector;
+import scheduler.db.Repositories;
+import scheduler.importer.AccountImporter;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.queue.ReservationQueue;
+import scheduler.util.Config;
+import scheduler.util.DateRange;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Micro and end-to-end benchmarks for the scheduler's hot paths.
+ *
+ *   java scheduler.bench.Benchmarks [--db] [--threads N] [--seconds S] [name-filter]
+ *
+ * Every benchmark runs once on one thread and once on N threads (default: number of cores), after a
+ * warm-up of the same length. --db adds the end-to-end commands, run through Session against the
+ * configured database after seeding it with BenchCaregivers caregivers, BenchPatients patients and
+ * BenchDays days of availability. Compare the output with bench/baseline.txt.
+ */
+public class Benchmarks {
+
+    private static final String VACCINE = "bench_vaccine";
+
+    // results are folded in here so the JIT cannot drop the work being measured
+    private static volatile long sink;
+
+    private final int threads;
+    private final long nanosPerRun;
+    private final String filter;
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    interface OperationFactory {
+        // one operation per thread, so per-thread state (sessions, buffers) is not shared
+        Operation create(int thread) throws Exception;
+    }
+
+    private Benchmarks(int threads, int seconds, String filter) {
+        this.threads = threads;
+        this.nanosPerRun = seconds * 1_000_000_000L;
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean db = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 3;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--db")) {
+                db = true;
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                filter = args[i];
+            }
+        }
+        Benchmarks benchmarks = new Benchmarks(threads, seconds, filter);
+        System.out.println(String.format("%-36s %8s %14s %12s", "benchmark", "threads", "ops/s", "us/op"));
+        benchmarks.runUtil();
+        benchmarks.runBuilders();
+        if (db) {
+            benchmarks.runCommands();
+        }
+    }
+
+    private void runUtil() throws Exception {
+        byte[] salt = Util.generateSalt();
+        byte[] padded = new byte[16];
+        padded[0] = 1;
+        padded[1] = 2;
+        bench("util.generateHash", t -> () -> sink += Util.generateHash("correct horse", salt)[0]);
+        bench("util.generateSalt", t -> () -> sink += Util.generateSalt()[0]);
+        bench("util.trim", t -> () -> sink += Util.trim(padded).length);
+    }
+
+    private void runBuilders() throws Exception {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("correct horse", salt);
+        bench("model.PatientBuilder", t -> () ->
+                sink += new Patient.PatientBuilder("patient", salt, hash).build().getHash().length);
+        bench("model.CaregiverBuilder", t -> () ->
+                sink += new Caregiver.CaregiverBuilder("caregiver", salt, hash).build().getHash().length);
+        bench("model.VaccineBuilder", t -> () ->
+                sink += new Vaccine.VaccineBuilder("vaccine", 10).build().getAvailableDoses());
+    }
+
+    private void runCommands() throws Exception {
+        int caregivers = Config.getInt("BenchCaregivers", 200);
+        int patients = Config.getInt("BenchPatients", 1000);
+        int days = Config.getInt("BenchDays", 60);
+        LocalDate firstDay = LocalDate.now().plusDays(1);
+        // the commands need the current schema, as in the scheduler itself
+        Repositories.get().migrate();
+        seed(caregivers, patients, days, firstDay);
+
+        bench("command.search_schedule", t -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Session session = login(t, patients, buffer);
+            int[] day = {0};
+            return () -> {
+                // the output is dropped, or the buffer would grow for the whole run
+                buffer.reset();
+                session.execute("search_caregiver_schedule " + firstDay.plusDays(day[0]++ % days));
+            };
+        });
+        bench("command.reserve+cancel", t -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Session session = login(t, patients, buffer);
+            int[] day = {0};
+            return () -> reserveAndCancel(session, buffer, firstDay.plusDays(day[0]++ % days));
+        });
+        // every thread books the same day, where picking the same caregiver makes the bookings queue
+        // on one Availabilities row; compares the CaregiverSelection strategies
+        CaregiverSelector configured = CaregiverSelector.get();
+        for (CaregiverSelector selector : CaregiverSelector.values()) {
+            CaregiverSelector.use(selector);
+            bench("command.reserve_one_day." + selector.name().toLowerCase(Locale.ROOT), t -> {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                Session session = login(t, patients, buffer);
+                return () -> reserveAndCancel(session, buffer, firstDay);
+            });
+        }
+        CaregiverSelector.use(configured);
+        // the same bookings through the ReservationQueue, which books concurrent requests together
+        bench("queue.reserve+cancel", t -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Session session = login(t, patients, buffer);
+            String patient = "bench_patient_" + (t % patients);
+            ReservationQueue queue = ReservationQueue.getInstance();
+            int[] day = {0};
+            return () -> {
+                Reservation reservation = queue.submit(patient, VACCINE,
+                        Date.valueOf(firstDay.plusDays(day[0]++ % days))).get();
+                if (reservation.isBooked()) {
+                    buffer.reset();
+                    session.execute("cancel " + reservation.getAppointmentId());
+                }
+            };
+        });
+        bench("command.show_appointments", t -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Session session = login(t, patients, buffer);
+            return () -> {
+                buffer.reset();
+                session.execute("show_appointments");
+            };
+        });
+    }
+
+    private static void reserveAndCancel(Session session, ByteArrayOutputStream buffer, LocalDate day)
+            throws IOException {
+        buffer.reset();
+        session.execute("reserve " + day + " " + VACCINE);
+        String output = buffer.toString(StandardCharsets.UTF_8.name());
+        if (output.startsWith("Appointment ID: ")) {
+            // cancel right away so the seeded availability is not used up
+            String id = output.substring("Appointment ID: ".length(), output.indexOf(','));
+            session.execute("cancel " + id);
+        }
+    }
+
+    private void seed(int caregivers, int patients, int days, LocalDate firstDay) throws Exception {
+        importAccounts(AccountImporter.AccountType.CAREGIVER, "bench_caregiver_", caregivers);
+        importAccounts(AccountImporter.AccountType.PATIENT, "bench_patient_", patients);
+        List<Date> dates = DateRange.expand(Date.valueOf(firstDay), Date.valueOf(firstDay.plusDays(days - 1)), null);
+        for (int i = 0; i < caregivers; i++) {
+            byte[] salt = Util.generateSalt();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder("bench_caregiver_" + i, salt,
+                    Util.generateHash("bench", salt)).build();
+            caregiver.uploadAvailabilities(dates);
+        }
+        Session admin = new Session(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        admin.execute("login_caregiver bench_caregiver_0 bench");
+        admin.execute("add_doses " + VACCINE + " 1000000");
+    }
+
+    private static void importAccounts(AccountImporter.AccountType type, String prefix, int count)
+            throws IOException, SQLException {
+        Path csv = Files.createTempFile("bench", ".csv");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < count; i++) {
+                writer.println(prefix + i + ",bench");
+            }
+        }
+        try {
+            // accounts left by an earlier run are reported as taken and skipped
+            new AccountImporter(type).importFile(csv);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    private static Session login(int thread, int patients, ByteArrayOutputStream buffer) {
+        Session session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        session.execute("login_patient bench_patient_" + (thread % patients) + " bench");
+        return session;
+    }
+
+    private void bench(String name, OperationFactory factory) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        report(name, 1, measure(factory, 1));
+        if (threads > 1) {
+            report(name, threads, measure(factory, threads));
+        }
+    }
+
+    // returns {operations, elapsed nanos} of the measured phase
+    private long[] measure(OperationFactory factory, int threadCount) throws Exception {
+        List<Operation> operations = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            operations.add(factory.create(t));
+        }
+        runFor(operations, nanosPerRun);
+        long start = System.nanoTime();
+        long count = runFor(operations, nanosPerRun);
+        return new long[]{count, System.nanoTime() - start};
+    }
+
+    private static long runFor(List<Operation> operations, long nanos) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        CountDownLatch done = new CountDownLatch(operations.size());
+        long[] counts = new long[operations.size()];
+        for (int t = 0; t < operations.size(); t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    Operation operation = operations.get(thread);
+                    long count = 0;
+                    while (!stop.get()) {
+                        operation.run();
+                        count++;
+                    }
+                    counts[thread] = count;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-" + t).start();
+        }
+        Thread.sleep(nanos / 1_000_000);
+        stop.set(true);
+        done.await();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static void report(String name, int threadCount, long[] result) {
+        double seconds = result[1] / 1e9;
+        double opsPerSecond = result[0] / seconds;
+        double microsPerOp = result[0] == 0 ? 0 : result[1] / 1e3 / result[0] * threadCount;
+        System.out.println(String.format("%-36s %8d %14.1f %12.3f", name, threadCount, opsPerSecond, microsPerOp));
+    }
+}
@@ -0,0 +1,131 @@
+package scheduler.cache;
+
+import scheduler.db.Repositories;
+import scheduler.util.Config;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory copy of the Availabilities table: date -> caregiver usernames in name order, plus the
+ * number of caregivers per date, kept alongside so a range of dates is counted without walking the sets.
+ * It is loaded once at startup and kept current by writing through on every change this
+ * process makes to Availabilities. Slots that other processes add or take are not seen, so it is only
+ * a hint: a booking still claims its slot in the database, drops a slot the database no longer has and
+ * asks the database when the index has nobody for the date (see Patient.reserve).
+ *
+ * Only dates from (today - AvailabilityRetentionDays) onwards are held in memory; older
+ * dates are evicted and lookups for them go to the database instead.
+ */
+public class AvailabilityIndex {
+
+    private static AvailabilityIndex instance = null;
+
+    private final ConcurrentSkipListMap<LocalDate, NavigableSet<String>> slots = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<LocalDate, AtomicInteger> counts = new ConcurrentSkipListMap<>();
+    private final int retentionDays;
+    private volatile boolean loaded = false;
+    private volatile LocalDate horizon;
+
+    private AvailabilityIndex() {
+        this.retentionDays = Math.max(0, Config.getInt("AvailabilityRetentionDays", 0));
+        this.horizon = LocalDate.now().minusDays(retentionDays);
+    }
+
+    public static synchronized AvailabilityIndex getInstance() {
+        if (instance == null) {
+            instance = new AvailabilityIndex();
+        }
+        return instance;
+    }
+
+    public void load() throws SQLException {
+        LocalDate from = LocalDate.now().minusDays(retentionDays);
+        slots.clear();
+        counts.clear();
+        horizon = from;
+        Repositories.get().availabilities().forEachFrom(Date.valueOf(from),
+                (time, caregiver) -> addSlot(time.toLocalDate(), caregiver));
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // true if lookups for this date can be answered from memory
+    public boolean covers(Date d) {
+        evictExpired();
+        return loaded && !d.toLocalDate().isBefore(horizon);
+    }
+
+    public List<String> getCaregivers(Date d) {
+        NavigableSet<String> caregivers = slots.get(d.toLocalDate());
+        return caregivers == null ? new ArrayList<>() : new ArrayList<>(caregivers);
+    }
+
+    // number of caregivers available on each date from..to that has any, in date order
+    public Map<Date, Integer> countCaregivers(Date from, Date to) {
+        Map<Date, Integer> result = new LinkedHashMap<>();
+        Map<LocalDate, AtomicInteger> range = counts.subMap(from.toLocalDate(), true, to.toLocalDate(), true);
+        for (Map.Entry<LocalDate, AtomicInteger> day : range.entrySet()) {
+            int count = day.getValue().get();
+            if (count > 0) {
+                result.put(Date.valueOf(day.getKey()), count);
+            }
+        }
+        return result;
+    }
+
+    public void add(Date d, String username) {
+        LocalDate date = d.toLocalDate();
+        if (loaded && !date.isBefore(horizon)) {
+            addSlot(date, username);
+        }
+    }
+
+    public void remove(Date d, String username) {
+        LocalDate date = d.toLocalDate();
+        NavigableSet<String> caregivers = slots.get(date);
+        if (caregivers != null && caregivers.remove(username)) {
+            changeCount(date, -1);
+        }
+    }
+
+    private void addSlot(LocalDate date, String username) {
+        // the set and its count are created together, so a date in slots always has a count
+        if (slots.computeIfAbsent(date, key -> {
+            counts.putIfAbsent(key, new AtomicInteger());
+            return new ConcurrentSkipListSet<>();
+        }).add(username)) {
+            changeCount(date, 1);
+        }
+    }
+
+    private void changeCount(LocalDate date, int delta) {
+        // null once the date fell behind the horizon
+        AtomicInteger count = counts.get(date);
+        if (count != null) {
+            count.addAndGet(delta);
+        }
+    }
+
+    // drops dates that fell behind the retention horizon since the last call
+    private void evictExpired() {
+        LocalDate newHorizon = LocalDate.now().minusDays(retentionDays);
+        if (newHorizon.isAfter(horizon)) {
+            horizon = newHorizon;
+            slots.headMap(newHorizon).clear();
+            counts.headMap(newHorizon).clear();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package scheduler.cache;
+
+import scheduler.db.Repositories;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Appointments per caregiver, for the least_loaded CaregiverSelector. Counted from Reservations the
+ * first time it is needed (appointments from that day on) and kept current by the bookings and
+ * cancellations of this process. Appointments that pass while the process runs are still counted.
+ */
+public class CaregiverLoad {
+
+    private static CaregiverLoad instance = null;
+
+    private final ConcurrentHashMap<String, AtomicInteger> load = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private CaregiverLoad() {
+    }
+
+    public static synchronized CaregiverLoad getInstance() {
+        if (instance == null) {
+            instance = new CaregiverLoad();
+        }
+        return instance;
+    }
+
+    public synchronized void load() throws SQLException {
+        Map<String, Integer> counts = Repositories.get().reservations().countByCaregiver(Date.valueOf(LocalDate.now()));
+        load.clear();
+        for (Map.Entry<String, Integer> caregiver : counts.entrySet()) {
+            load.put(caregiver.getKey(), new AtomicInteger(caregiver.getValue()));
+        }
+        loaded = true;
+    }
+
+    public void booked(String caregiverUsername) {
+        if (loaded) {
+            counter(caregiverUsername).incrementAndGet();
+        }
+    }
+
+    public void cancelled(String caregiverUsername) {
+        if (loaded) {
+            counter(caregiverUsername).decrementAndGet();
+        }
+    }
+
+    // the caregiver with the fewest appointments; among equals, the one the patient hashes to
+    String leastLoaded(List<String> caregivers, String patientUsername) {
+        if (!loaded) {
+            try {
+                load();
+            } catch (SQLException e) {
+                return CaregiverSelector.HASHED.pick(caregivers, patientUsername);
+            }
+        }
+        int[] counts = new int[caregivers.size()];
+        int least = Integer.MAX_VALUE;
+        int ties = 0;
+        for (int i = 0; i < counts.length; i++) {
+            AtomicInteger count = load.get(caregivers.get(i));
+            counts[i] = count == null ? 0 : count.get();
+            if (counts[i] < least) {
+                least = counts[i];
+                ties = 1;
+            } else if (counts[i] == least) {
+                ties++;
+            }
+        }
+        int skip = CaregiverSelector.hash(patientUsername, ties);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == least && skip-- == 0) {
+                return caregivers.get(i);
+            }
+        }
+        return caregivers.get(0);
+    }
+
+    private AtomicInteger counter(String caregiverUsername) {
+        return load.computeIfAbsent(caregiverUsername, key -> new AtomicInteger());
+    }
+}
@@ -0,0 +1,71 @@
+package scheduler.cache;
+
+import scheduler.util.Config;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How reserve picks a caregiver among the ones free on the date, set with CaregiverSelection:
+ *   first        - the first by username; concurrent reservations for a date all go for the same row
+ *   hashed       - by a hash of the patient's username, so concurrent patients spread out (default)
+ *   random       - uniformly at random
+ *   least_loaded - the caregiver with the fewest appointments from today on (see CaregiverLoad), ties hashed
+ * The pick is only a preference: if its slot is gone or locked, the booking takes any free slot instead.
+ */
+public enum CaregiverSelector {
+    FIRST {
+        @Override
+        public String pick(List<String> caregivers, String patientUsername) {
+            return caregivers.get(0);
+        }
+    },
+    HASHED {
+        @Override
+        public String pick(List<String> caregivers, String patientUsername) {
+            return caregivers.get(hash(patientUsername, caregivers.size()));
+        }
+    },
+    RANDOM {
+        @Override
+        public String pick(List<String> caregivers, String patientUsername) {
+            return caregivers.get(ThreadLocalRandom.current().nextInt(caregivers.size()));
+        }
+    },
+    LEAST_LOADED {
+        @Override
+        public String pick(List<String> caregivers, String patientUsername) {
+            return CaregiverLoad.getInstance().leastLoaded(caregivers, patientUsername);
+        }
+    };
+
+    private static volatile CaregiverSelector current = null;
+
+    // caregivers is not empty
+    public abstract String pick(List<String> caregivers, String patientUsername);
+
+    public static CaregiverSelector get() {
+        CaregiverSelector selector = current;
+        if (selector == null) {
+            selector = parse(Config.getString("CaregiverSelection", "hashed"));
+            current = selector;
+        }
+        return selector;
+    }
+
+    // switches the strategy for the whole process, e.g. from a benchmark
+    public static void use(CaregiverSelector selector) {
+        current = selector;
+    }
+
+    public static CaregiverSelector parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    // spreads usernames evenly over 0..size-1, also for names that differ only in a trailing number
+    static int hash(String username, int size) {
+        int h = username.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), size);
+    }
+}
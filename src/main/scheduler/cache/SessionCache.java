@@ -0,0 +1,154 @@
+package scheduler.cache;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Config;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logged-in users by session token. A login hands out an opaque random token; a client that comes
+ * back with it (resume_session, e.g. a front end on a new connection) gets the user without the
+ * Patients/Caregivers lookup and the password hash a login costs.
+ *
+ * A session ends at logout, after SessionIdleMinutes (30) without a command, SessionMaxMinutes
+ * (720) after the login whatever happens, or when more than SessionMaxEntries (10000) sessions are
+ * open, in which case the ones used least recently go first.
+ */
+public class SessionCache {
+
+    private static SessionCache instance = null;
+
+    // 256 random bits, so a token cannot be guessed
+    private static final int TOKEN_BYTES = 32;
+
+    // a logged-in patient or caregiver; exactly one of the two is set
+    public static class Principal {
+        private final Patient patient;
+        private final Caregiver caregiver;
+        private final long createdAt;
+        private volatile long lastUsed;
+
+        private Principal(Patient patient, Caregiver caregiver, long now) {
+            this.patient = patient;
+            this.caregiver = caregiver;
+            this.createdAt = now;
+            this.lastUsed = now;
+        }
+
+        public Patient getPatient() {
+            return patient;
+        }
+
+        public Caregiver getCaregiver() {
+            return caregiver;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final int maxEntries;
+    private final long idleNanos;
+    private final long maxNanos;
+    // lookups, the hot path of every command, take no lock; only a sweep over capacity is serialized
+    private final ConcurrentHashMap<String, Principal> sessions = new ConcurrentHashMap<>();
+    private final Object sweepLock = new Object();
+
+    private SessionCache() {
+        this.maxEntries = Math.max(1, Config.getInt("SessionMaxEntries", 10_000));
+        this.idleNanos = TimeUnit.MINUTES.toNanos(Math.max(1, Config.getLong("SessionIdleMinutes", 30)));
+        this.maxNanos = TimeUnit.MINUTES.toNanos(Math.max(1, Config.getLong("SessionMaxMinutes", 720)));
+    }
+
+    public static synchronized SessionCache getInstance() {
+        if (instance == null) {
+            instance = new SessionCache();
+        }
+        return instance;
+    }
+
+    public String issue(Patient patient) {
+        return issue(new Principal(patient, null, System.nanoTime()));
+    }
+
+    public String issue(Caregiver caregiver) {
+        return issue(new Principal(null, caregiver, System.nanoTime()));
+    }
+
+    private String issue(Principal principal) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, principal);
+        if (sessions.size() > maxEntries) {
+            sweep(principal.createdAt);
+        }
+        Metrics.get().increment("sessions.issued");
+        return token;
+    }
+
+    // the user of the session and marks it used; null if there is no such session or it expired
+    public Principal get(String token) {
+        Principal principal = sessions.get(token);
+        if (principal == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (expired(principal, now)) {
+            if (sessions.remove(token, principal)) {
+                Metrics.get().increment("sessions.expired");
+            }
+            return null;
+        }
+        principal.lastUsed = now;
+        return principal;
+    }
+
+    public void invalidate(String token) {
+        sessions.remove(token);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private boolean expired(Principal principal, long now) {
+        return now - principal.lastUsed > idleNanos || now - principal.createdAt > maxNanos;
+    }
+
+    // Drops the expired sessions and, if there are still too many, the ones used least recently. It
+    // evicts down to 15/16 of SessionMaxEntries, so a full cache is swept once per that many logins
+    // instead of on every one.
+    private void sweep(long now) {
+        synchronized (sweepLock) {
+            if (sessions.size() <= maxEntries) {
+                return;
+            }
+            List<Map.Entry<String, Principal>> live = new ArrayList<>(sessions.size());
+            for (Map.Entry<String, Principal> session : sessions.entrySet()) {
+                if (!expired(session.getValue(), now)) {
+                    live.add(session);
+                } else if (sessions.remove(session.getKey(), session.getValue())) {
+                    Metrics.get().increment("sessions.expired");
+                }
+            }
+            int excess = live.size() - (maxEntries - maxEntries / 16);
+            if (excess <= 0) {
+                return;
+            }
+            live.sort(Comparator.comparingLong(session -> session.getValue().lastUsed));
+            for (Map.Entry<String, Principal> session : live.subList(0, excess)) {
+                if (sessions.remove(session.getKey(), session.getValue())) {
+                    Metrics.get().increment("sessions.evicted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+// the Patients or the Caregivers table; usernames compare case-insensitively
+public interface AccountRepository {
+
+    boolean exists(String username) throws SQLException;
+
+    // null if there is no such account
+    Credentials find(String username) throws SQLException;
+
+    void save(Credentials account) throws SQLException;
+
+    // saves all accounts in one transaction; none are saved if one fails
+    void saveAll(List<Credentials> accounts) throws SQLException;
+
+    // the usernames out of the given ones that are already taken, in lower case
+    Set<String> findExisting(Collection<String> usernames) throws SQLException;
+
+    void updateHash(String username, byte[] hash, int iterations, int keyLength) throws SQLException;
+}
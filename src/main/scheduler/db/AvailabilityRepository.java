@@ -0,0 +1,33 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// the Availabilities table
+public interface AvailabilityRepository {
+
+    interface SlotConsumer {
+        void accept(Date time, String caregiverUsername);
+    }
+
+    // fails if the caregiver already uploaded this date
+    void add(Date d, String caregiverUsername) throws SQLException;
+
+    // adds all dates in one transaction, skipping dates that already exist; returns which ones were added
+    boolean[] addAll(String caregiverUsername, List<Date> dates) throws SQLException;
+
+    // caregivers available on the date, ordered by username
+    List<String> findCaregivers(Date d) throws SQLException;
+
+    // whether the caregiver has the slot; unlike a booking it waits for a slot that is being taken
+    // instead of skipping it, so it only says no once the slot is really gone
+    boolean exists(Date d, String caregiverUsername) throws SQLException;
+
+    // number of caregivers available on each date from..to that has any, in date order
+    Map<Date, Integer> countByDay(Date from, Date to) throws SQLException;
+
+    // every slot on or after the date
+    void forEachFrom(Date from, SlotConsumer consumer) throws SQLException;
+}
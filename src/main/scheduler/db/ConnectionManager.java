@@ -1,41 +1,39 @@
 package scheduler.db;
 
+import scheduler.metrics.Tracer;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // all managers share one bounded pool, so creating a manager per call is cheap
+    private final ConnectionPool pool = ConnectionPool.getInstance();
 
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    public Connection createConnection() throws SQLException {
+        // borrow a connection from the shared pool instead of opening a new one
+        long start = System.nanoTime();
+        con = pool.borrow();
+        Tracer.get().connectionAcquired(System.nanoTime() - start);
         return con;
     }
 
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
+            // returns the connection to the pool
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            this.con = null;
         }
     }
 }
@@ -0,0 +1,398 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of physical connections shared by the whole process.
+ * Connections handed out by {@link #borrow()} are proxies: calling close() on them
+ * returns the physical connection to the pool instead of closing it.
+ *
+ * Settings (environment variables, all optional):
+ *   PoolMinSize, PoolMaxSize, PoolBorrowTimeoutMillis, PoolIdleTimeoutMillis,
+ *   PoolValidationTimeoutSeconds, PoolValidationIdleMillis, PoolLeakThresholdMillis, PoolLeakStackTraces,
+ *   StatementCacheSize
+ *
+ * A borrowed connection is only checked with a round trip (isValid) when it sat idle for longer than
+ * PoolValidationIdleMillis (default 5000); one returned just before was working a moment ago. A
+ * connection the driver closed after a fatal error is never handed out again either way.
+ *
+ * A connection still borrowed after PoolLeakThresholdMillis is reported as a possible leak, with the
+ * thread that borrowed it. Set PoolLeakStackTraces=true to also get the stack trace of the borrow;
+ * it is off by default because capturing it costs a stack walk on every borrow.
+ *
+ * Every physical connection keeps up to StatementCacheSize (default 32, 0 turns it off) prepared
+ * statements, keyed by SQL text and evicted least recently used first. prepareStatement(sql) returns
+ * the cached one when there is one, so the driver reuses the handle it got from the first
+ * sp_prepexec instead of preparing again; close() on a cached statement only resets it.
+ */
+public class ConnectionPool {
+
+    private static final String DRIVER_NAME = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    private static ConnectionPool instance = null;
+
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long validationIdleMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakStackTraces;
+    private final int statementCacheSize;
+
+    // permits bound the number of connections that are borrowed at the same time
+    private final Semaphore permits;
+    // most recently returned connections are at the head, so the tail holds the longest idle ones
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<PooledConnection, Boolean> borrowed = new ConcurrentHashMap<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+
+    private ConnectionPool() {
+        this.connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+                ".database.windows.net:1433;database=" + System.getenv("DBName");
+        this.userName = System.getenv("UserID");
+        this.userPass = System.getenv("Password");
+
+        this.maxSize = Math.max(1, Config.getInt("PoolMaxSize", 10));
+        this.minSize = Math.min(Math.max(0, Config.getInt("PoolMinSize", 1)), maxSize);
+        this.borrowTimeoutMillis = Config.getLong("PoolBorrowTimeoutMillis", 30_000);
+        this.idleTimeoutMillis = Config.getLong("PoolIdleTimeoutMillis", 600_000);
+        this.validationTimeoutSeconds = Config.getInt("PoolValidationTimeoutSeconds", 5);
+        this.validationIdleMillis = Math.max(0, Config.getLong("PoolValidationIdleMillis", 5_000));
+        this.leakThresholdMillis = Config.getLong("PoolLeakThresholdMillis", 60_000);
+        this.leakStackTraces = Config.getBoolean("PoolLeakStackTraces", false);
+        this.statementCacheSize = Math.max(0, Config.getInt("StatementCacheSize", 32));
+        this.permits = new Semaphore(maxSize, true);
+
+        try {
+            Class.forName(DRIVER_NAME);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ConnectionPool();
+        }
+        return instance;
+    }
+
+    public Connection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            pooled.onBorrow();
+            borrowed.put(pooled, Boolean.TRUE);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled, System.currentTimeMillis() - pooled.lastReturned > validationIdleMillis)) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    // isClosed is answered by the driver without going to the server, isValid costs a round trip
+    private boolean isValid(PooledConnection pooled, boolean roundTrip) {
+        try {
+            return !pooled.physical.isClosed() && (!roundTrip || pooled.physical.isValid(validationTimeoutSeconds));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(connectionUrl, userName, userPass);
+        totalConnections.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pooled) {
+        if (borrowed.remove(pooled) == null) {
+            // already returned
+            return;
+        }
+        try {
+            boolean reusable = !pooled.physical.isClosed();
+            if (reusable) {
+                pooled.closeStatements();
+                if (!pooled.physical.getAutoCommit()) {
+                    // never hand out a connection with a half-finished transaction
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                discard(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // evict connections that have been idle for too long, keeping at least minSize open
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastReturned > idleTimeoutMillis && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+
+        // top the pool back up to minSize so the first command does not pay for the handshake
+        while (totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = open();
+                pooled.lastReturned = now;
+                idle.offerFirst(pooled);
+            } catch (SQLException e) {
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+
+        // report connections that were borrowed but never given back
+        for (PooledConnection pooled : borrowed.keySet()) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                pooled.leakReported = true;
+                System.err.println("Possible connection leak: connection borrowed by " + pooled.borrowerName + " "
+                        + (now - pooled.borrowedAt) + " ms ago and not returned");
+                Throwable borrowSite = pooled.borrowSite;
+                if (borrowSite != null) {
+                    borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getBorrowedConnections() {
+        return borrowed.size();
+    }
+
+    public void shutdown() {
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final Connection proxy;
+        // statements created during the current borrow, closed when the connection is returned
+        private final List<Statement> statements = new ArrayList<>();
+        // prepared statements kept for the life of the connection, least recently used first;
+        // only the borrowing thread touches it
+        private final LinkedHashMap<String, InstrumentedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile long borrowedAt;
+        private volatile long lastReturned;
+        private volatile String borrowerName;
+        // only with PoolLeakStackTraces
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean returned;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        void onBorrow() {
+            borrowedAt = System.currentTimeMillis();
+            borrowerName = Thread.currentThread().getName();
+            borrowSite = leakStackTraces ? new Throwable("Connection borrowed here") : null;
+            leakReported = false;
+            returned = false;
+        }
+
+        void closeStatements() {
+            synchronized (statements) {
+                for (Statement statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        // ignore, the statement is no longer usable anyway
+                    }
+                }
+                statements.clear();
+            }
+            for (InstrumentedStatement cached : statementCache.values()) {
+                try {
+                    cached.getProxy().close();
+                } catch (SQLException e) {
+                    // the next caller gets an error and the connection is discarded then
+                }
+            }
+        }
+
+        // returns the cached statement for the SQL, or prepares and caches it
+        Statement prepareCached(String sql) throws SQLException {
+            Metrics metrics = Metrics.get();
+            InstrumentedStatement cached = statementCache.get(sql);
+            if (cached != null && cached.checkOut()) {
+                metrics.increment("statementCache.hits");
+                return cached.getProxy();
+            }
+            metrics.increment("statementCache.misses");
+            PreparedStatement physicalStatement = physical.prepareStatement(sql);
+            if (cached != null) {
+                // the cached one is still in use in this borrow; this one lives until the connection is returned
+                Statement statement = new InstrumentedStatement(physicalStatement, PreparedStatement.class, sql, false)
+                        .getProxy();
+                synchronized (statements) {
+                    statements.add(statement);
+                }
+                return statement;
+            }
+            cached = new InstrumentedStatement(physicalStatement, PreparedStatement.class, sql, true);
+            cached.checkOut();
+            statementCache.put(sql, cached);
+            if (statementCache.size() > statementCacheSize) {
+                Iterator<InstrumentedStatement> eldest = statementCache.values().iterator();
+                eldest.next().closePhysical();
+                eldest.remove();
+                metrics.increment("statementCache.evictions");
+            }
+            return cached.getProxy();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    release(this);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "Pooled" + physical;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0) {
+                return prepareCached((String) args[0]);
+            }
+            boolean timed = name.equals("commit") || name.equals("rollback");
+            long start = System.nanoTime();
+            SQLException error = null;
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement) {
+                    // prepareStatement and prepareCall take the SQL first, createStatement takes none
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                    Statement statement = new InstrumentedStatement((Statement) result, method.getReturnType(), sql, false)
+                            .getProxy();
+                    synchronized (statements) {
+                        // closed through the wrapper, so traces of unread results are still written
+                        statements.add(statement);
+                    }
+                    return statement;
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    error = (SQLException) e.getCause();
+                }
+                throw e.getCause();
+            } finally {
+                if (timed) {
+                    Metrics.get().recordJdbc(name, System.nanoTime() - start, error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package scheduler.db;
+
+// a stored patient or caregiver account: the password hash and the parameters it was made with
+public class Credentials {
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final int iterations;
+    private final int keyLength;
+
+    public Credentials(String username, byte[] salt, byte[] hash, int iterations, int keyLength) {
+        this.username = username;
+        this.salt = salt;
+        this.hash = hash;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    // 0 for accounts stored before the parameters were recorded
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler.db;
+
+// one entry of the dose ledger: doses that came in or went out of a vaccine's stock, and why
+public class DoseMovement {
+
+    public enum Reason {
+        SHIPMENT,
+        RESERVATION,
+        CANCELLATION
+    }
+
+    private final String vaccineName;
+    private final Reason reason;
+    private final long doses;
+
+    public DoseMovement(String vaccineName, Reason reason, long doses) {
+        this.vaccineName = vaccineName;
+        this.reason = reason;
+        this.doses = doses;
+    }
+
+    // Getters
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    // negative when doses went out
+    public long getDoses() {
+        return doses;
+    }
+}
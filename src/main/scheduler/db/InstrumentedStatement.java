@@ -0,0 +1,209 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.metrics.QueryTrace;
+import scheduler.metrics.Tracer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+// Times every execute call of a statement handed out by the pool and reports it to Metrics.
+// Only while the Tracer captures does it also keep the SQL and bind parameters, and follow the result
+// set to add the fetch time and row count before handing the finished query to the Tracer.
+// A cached statement outlives close(): closing it only resets it for the next caller.
+class InstrumentedStatement implements InvocationHandler {
+
+    private final Statement physical;
+    private final Statement proxy;
+    // null for a plain Statement, whose SQL comes with each execute call
+    private final String sql;
+    private final boolean cached;
+    // a cached statement is in use from checkOut() until it is closed
+    private boolean inUse = false;
+    private ResultSet lastResultSet = null;
+    private final Tracer tracer = Tracer.get();
+    private final Map<Integer, String> parameters = new HashMap<>();
+    private int batchSize = 0;
+    // the query whose result set is still being read
+    private QueryTrace open = null;
+
+    // type is the interface the caller asked for: Statement, PreparedStatement or CallableStatement
+    InstrumentedStatement(Statement physical, Class<?> type, String sql, boolean cached) {
+        this.physical = physical;
+        this.sql = sql;
+        this.cached = cached;
+        this.proxy = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, this);
+    }
+
+    Statement getProxy() {
+        return proxy;
+    }
+
+    // false if the statement is already handed out, e.g. the same SQL prepared twice in one borrow
+    boolean checkOut() {
+        if (inUse) {
+            return false;
+        }
+        inUse = true;
+        return true;
+    }
+
+    void closePhysical() {
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            // ignore, the statement is no longer usable anyway
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        if (name.equals("close")) {
+            finishOpen();
+            if (cached) {
+                reset();
+                return null;
+            }
+        } else if (tracer.isCapturing()) {
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], name.equals("setNull") ? "NULL" : QueryTrace.render(args[1]));
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            }
+        }
+        if (!name.startsWith("execute")) {
+            return call(method, args);
+        }
+
+        finishOpen();
+        QueryTrace query = null;
+        if (tracer.isCapturing()) {
+            String text = sql != null ? sql : (args != null && args.length > 0 ? String.valueOf(args[0]) : null);
+            query = new QueryTrace(text, parameters, batchSize);
+        }
+        long start = System.nanoTime();
+        SQLException error = null;
+        Object result = null;
+        try {
+            result = call(method, args);
+            if (result instanceof ResultSet) {
+                lastResultSet = (ResultSet) result;
+            }
+            return result instanceof ResultSet && query != null ? followResultSet((ResultSet) result, query) : result;
+        } catch (SQLException e) {
+            error = e;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Metrics.get().recordJdbc(name, nanos, error);
+            if (name.equals("executeBatch")) {
+                batchSize = 0;
+            }
+            if (query != null) {
+                query.executed(nanos, rowCount(result), error == null ? null : error.getSQLState());
+                if (result instanceof ResultSet && error == null) {
+                    open = query;
+                } else {
+                    tracer.queryFinished(query);
+                }
+            }
+        }
+    }
+
+    // gets a cached statement ready for the next caller
+    private void reset() throws SQLException {
+        if (lastResultSet != null) {
+            lastResultSet.close();
+            lastResultSet = null;
+        }
+        physical.clearBatch();
+        ((PreparedStatement) physical).clearParameters();
+        parameters.clear();
+        batchSize = 0;
+        inUse = false;
+    }
+
+    private static long rowCount(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return ((Number) result).longValue();
+        }
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+            return rows;
+        }
+        return -1;
+    }
+
+    private void finishOpen() {
+        if (open != null) {
+            QueryTrace query = open;
+            open = null;
+            tracer.queryFinished(query);
+        }
+    }
+
+    // times next() and counts rows; the query is finished when the rows run out or the result set is closed
+    private ResultSet followResultSet(ResultSet physicalResultSet, QueryTrace query) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        long start = System.nanoTime();
+                        boolean more = (Boolean) call(physicalResultSet, method, args);
+                        if (open == query) {
+                            if (more) {
+                                query.fetched(System.nanoTime() - start);
+                            } else {
+                                query.fetchedEnd(System.nanoTime() - start);
+                                finishOpen();
+                            }
+                        }
+                        return more;
+                    }
+                    if (name.equals("close") && open == query) {
+                        finishOpen();
+                    }
+                    if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return call(physicalResultSet, method, args);
+                });
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        return call(physical, method, args);
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
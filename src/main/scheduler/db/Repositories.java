@@ -0,0 +1,101 @@
+package scheduler.db;
+
+import scheduler.db.local.LocalDatabase;
+import scheduler.db.sqlserver.SchemaMigrations;
+import scheduler.db.sqlserver.SqlServerAccountRepository;
+import scheduler.db.sqlserver.SqlServerAvailabilityRepository;
+import scheduler.db.sqlserver.SqlServerReservationRepository;
+import scheduler.db.sqlserver.SqlServerVaccineRepository;
+import scheduler.util.Config;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * The storage backend, chosen once per process with the Backend setting:
+ *   sqlserver (default) - the Azure SQL database named by Server/DBName, through the connection pool
+ *   local               - an in-process store kept durable in LocalDataDir, for development, benchmarks and
+ *                         single-clinic sites (see LocalDatabase)
+ */
+public class Repositories {
+
+    private static Repositories instance = null;
+
+    private final String backend;
+    private final AccountRepository patients;
+    private final AccountRepository caregivers;
+    private final AvailabilityRepository availabilities;
+    private final VaccineRepository vaccines;
+    private final ReservationRepository reservations;
+
+    private Repositories(String backend, AccountRepository patients, AccountRepository caregivers,
+                         AvailabilityRepository availabilities, VaccineRepository vaccines,
+                         ReservationRepository reservations) {
+        this.backend = backend;
+        this.patients = patients;
+        this.caregivers = caregivers;
+        this.availabilities = availabilities;
+        this.vaccines = vaccines;
+        this.reservations = reservations;
+    }
+
+    public static synchronized Repositories get() {
+        if (instance == null) {
+            instance = create(Config.getString("Backend", "sqlserver"));
+        }
+        return instance;
+    }
+
+    private static Repositories create(String backend) {
+        if (backend.equalsIgnoreCase("local")) {
+            LocalDatabase db;
+            try {
+                db = new LocalDatabase();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open the local database", e);
+            }
+            return new Repositories("local", db.patients(), db.caregivers(), db.availabilities(),
+                    db.vaccines(), db.reservations());
+        }
+        if (!backend.equalsIgnoreCase("sqlserver")) {
+            throw new IllegalArgumentException("Unknown Backend: " + backend);
+        }
+        return new Repositories("sqlserver",
+                new SqlServerAccountRepository("Patients"),
+                new SqlServerAccountRepository("Caregivers"),
+                new SqlServerAvailabilityRepository(),
+                new SqlServerVaccineRepository(),
+                new SqlServerReservationRepository());
+    }
+
+    // brings the SQL Server schema up to date; the local backend keeps its own format
+    public void migrate() throws SQLException {
+        if (backend.equals("sqlserver")) {
+            SchemaMigrations.migrate();
+        }
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public AccountRepository patients() {
+        return patients;
+    }
+
+    public AccountRepository caregivers() {
+        return caregivers;
+    }
+
+    public AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    public VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    public ReservationRepository reservations() {
+        return reservations;
+    }
+}
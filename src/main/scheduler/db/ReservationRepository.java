@@ -0,0 +1,49 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// the Reservations table, together with the Availabilities rows that bookings use up
+public interface ReservationRepository {
+
+    interface AppointmentConsumer {
+        void accept(int appointmentId, String patientUsername, String caregiverUsername, String vaccineName, Date time);
+    }
+
+    // Atomically takes a free caregiver slot on the date (the preferred caregiver's if it is still free)
+    // and records the appointment with its dose. The result is BOOKED, NO_DOSES if the vaccine has no dose
+    // left or NO_CAREGIVER.
+    Reservation reserve(String patientUsername, String vaccineName, Date d, String preferredCaregiver) throws SQLException;
+
+    // Books the patients, in order, into free caregiver slots on the date in one transaction, each into
+    // the slot of its preferred caregiver (null for none) while that one is free. There is one result per
+    // patient: BOOKED, NO_DOSES once the doses run out, or NO_CAREGIVER once the slots do.
+    List<Reservation> reserveAll(List<String> patientUsernames, List<String> preferredCaregivers, String vaccineName,
+                                 Date d) throws SQLException;
+
+    // Deletes the appointment if it belongs to the patient or the caregiver (pass null for the other)
+    // and gives the caregiver the slot back, atomically. Returns the deleted appointment, or null if
+    // there is no such appointment of that user. The dose is the caller's to give back.
+    Appointment cancel(int appointmentId, String patientUsername, String caregiverUsername) throws SQLException;
+
+    // cancels every appointment of the caregiver on the date and deletes their free slot on it, in one
+    // transaction, as the caregiver is not available that day; returns the deleted appointments
+    List<Appointment> cancelDay(Date d, String caregiverUsername) throws SQLException;
+
+    // number of appointments on or after the date for each caregiver that has any
+    Map<String, Integer> countByCaregiver(Date from) throws SQLException;
+
+    // One page of the patient's appointments, in appointment id order: ids after afterId, dates within
+    // from..to (null for no bound), at most limit of them. Rows are handed over as they are read.
+    // Returns how many there were; a full page means there may be more after the last id.
+    int forEachByPatient(String patientUsername, int afterId, Date from, Date to, int limit,
+                         AppointmentConsumer consumer) throws SQLException;
+
+    int forEachByCaregiver(String caregiverUsername, int afterId, Date from, Date to, int limit,
+                           AppointmentConsumer consumer) throws SQLException;
+}
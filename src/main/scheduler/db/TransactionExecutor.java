@@ -0,0 +1,118 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs one database transaction and runs it again when it failed for a reason that goes away on
+ * its own: SQL Server chose it as a deadlock victim (1205), a lock wait timed out (1222), or a
+ * serialization failure (SQL state 40001). Every other error, and the last transient one, is
+ * thrown to the caller unchanged.
+ *
+ * Between attempts it sleeps a random time up to an exponentially growing cap ("full jitter"), so
+ * the transactions that collided do not collide again. Retries are also limited process-wide: each
+ * transaction earns TransactionRetryBudget of a retry and each retry spends one, so when the
+ * database is overloaded the retries cannot multiply the load.
+ *
+ * Settings (environment variables, all optional):
+ *   TransactionMaxAttempts (4)          - attempts per transaction, the first one included
+ *   TransactionRetryBaseMillis (10)     - cap of the first backoff; it doubles on every retry
+ *   TransactionRetryMaxMillis (1000)    - largest backoff cap
+ *   TransactionRetryBudget (0.1)        - retries earned per transaction; at most 10 are saved up
+ */
+public class TransactionExecutor {
+
+    private static TransactionExecutor instance = null;
+
+    private static final int DEADLOCK_VICTIM = 1205;
+    private static final int LOCK_TIMEOUT = 1222;
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final double MAX_SAVED_RETRIES = 10;
+
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long maxMillis;
+    private final double budgetRatio;
+    // guarded by this
+    private double retryTokens = MAX_SAVED_RETRIES;
+
+    // one transaction; it has to be safe to run again after it failed
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    private TransactionExecutor() {
+        this.maxAttempts = Math.max(1, Config.getInt("TransactionMaxAttempts", 4));
+        this.baseMillis = Math.max(1, Config.getLong("TransactionRetryBaseMillis", 10));
+        this.maxMillis = Math.max(this.baseMillis, Config.getLong("TransactionRetryMaxMillis", 1_000));
+        this.budgetRatio = Math.max(0, Config.getDouble("TransactionRetryBudget", 0.1));
+    }
+
+    public static synchronized TransactionExecutor getInstance() {
+        if (instance == null) {
+            instance = new TransactionExecutor();
+        }
+        return instance;
+    }
+
+    // name is used for the transaction.retries.<name> counter
+    public <T> T run(String name, Work<T> work) throws SQLException {
+        Metrics metrics = Metrics.get();
+        earn();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.run();
+            } catch (SQLException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts || !spend()) {
+                    metrics.increment("transaction.exhausted");
+                    throw e;
+                }
+                metrics.increment("transaction.retries");
+                metrics.increment("transaction.retries." + name);
+                if (!backOff(attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public static boolean isTransient(SQLException e) {
+        for (SQLException error = e; error != null; error = error.getNextException()) {
+            if (error.getErrorCode() == DEADLOCK_VICTIM || error.getErrorCode() == LOCK_TIMEOUT
+                    || SERIALIZATION_FAILURE.equals(error.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void earn() {
+        retryTokens = Math.min(MAX_SAVED_RETRIES, retryTokens + budgetRatio);
+    }
+
+    private synchronized boolean spend() {
+        if (retryTokens < 1) {
+            return false;
+        }
+        retryTokens -= 1;
+        return true;
+    }
+
+    // false if the thread was interrupted while waiting
+    private boolean backOff(int attempt) {
+        long cap = Math.min(maxMillis, baseMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// the Vaccines table and its dose ledger: Vaccines.Doses is a snapshot of the balance, the ledger holds
+// the movements since, and compaction folds the ledger into the snapshot
+public interface VaccineRepository {
+
+    void save(String vaccineName, int doses) throws SQLException;
+
+    // vaccine name -> doses, the snapshot plus the ledger entries not yet folded into it
+    Map<String, Integer> findAll() throws SQLException;
+
+    // Appends the movements to the ledger in one transaction. The flush id is recorded in the same
+    // transaction, so appending a batch a second time has no effect. Returns false if it was appended before.
+    // Movements of an unknown vaccine are dropped.
+    boolean append(String flushId, List<DoseMovement> movements) throws SQLException;
+
+    // Folds ledger entries into the snapshot, at most limit of them; returns how many were folded
+    int compact(int limit) throws SQLException;
+}
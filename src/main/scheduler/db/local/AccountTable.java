@@ -0,0 +1,50 @@
+package scheduler.db.local;
+
+import scheduler.db.Credentials;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Patients or Caregivers; every account gets a dense int id, in insertion order, that the other tables refer to
+final class AccountTable {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<Credentials> rows = new ArrayList<>();
+
+    // -1 if there is no such account
+    int find(String username) {
+        Integer id = ids.get(username.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    Credentials get(int id) {
+        return rows.get(id);
+    }
+
+    String name(int id) {
+        return rows.get(id).getUsername();
+    }
+
+    int insert(Credentials account) {
+        int id = rows.size();
+        ids.put(account.getUsername().toLowerCase(Locale.ROOT), id);
+        rows.add(account);
+        return id;
+    }
+
+    void update(int id, Credentials account) {
+        rows.set(id, account);
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    // orders ids by username, case-insensitively, like ORDER BY Username
+    int compare(int a, int b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(name(a), name(b));
+    }
+}
@@ -0,0 +1,70 @@
+package scheduler.db.local;
+
+import java.util.Arrays;
+
+// Reservations as parallel int arrays indexed by appointment id - 1; a cancelled appointment has patient -1
+final class AppointmentTable {
+
+    private int[] patients = new int[64];
+    private int[] caregivers = new int[64];
+    private int[] vaccines = new int[64];
+    private int[] days = new int[64];
+    // the highest appointment id handed out
+    private int size = 0;
+
+    int nextId() {
+        return size + 1;
+    }
+
+    int highestId() {
+        return size;
+    }
+
+    boolean exists(int id) {
+        return id >= 1 && id <= size && patients[id - 1] >= 0;
+    }
+
+    int patient(int id) {
+        return patients[id - 1];
+    }
+
+    int caregiver(int id) {
+        return caregivers[id - 1];
+    }
+
+    int vaccine(int id) {
+        return vaccines[id - 1];
+    }
+
+    // the date as an epoch day
+    int day(int id) {
+        return days[id - 1];
+    }
+
+    void put(int id, int patient, int caregiver, int vaccine, int day) {
+        extendTo(id);
+        patients[id - 1] = patient;
+        caregivers[id - 1] = caregiver;
+        vaccines[id - 1] = vaccine;
+        days[id - 1] = day;
+    }
+
+    // makes every id up to highest used; ids that were never put (cancelled before a snapshot) stay empty
+    void extendTo(int highest) {
+        if (highest > patients.length) {
+            int capacity = Math.max(patients.length * 2, highest);
+            patients = Arrays.copyOf(patients, capacity);
+            caregivers = Arrays.copyOf(caregivers, capacity);
+            vaccines = Arrays.copyOf(vaccines, capacity);
+            days = Arrays.copyOf(days, capacity);
+        }
+        for (int i = size; i < highest; i++) {
+            patients[i] = -1;
+        }
+        size = Math.max(size, highest);
+    }
+
+    void remove(int id) {
+        patients[id - 1] = -1;
+    }
+}
@@ -0,0 +1,117 @@
+package scheduler.db.local;
+
+import scheduler.db.AccountRepository;
+import scheduler.db.Credentials;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+class LocalAccountRepository implements AccountRepository {
+
+    private final LocalDatabase db;
+    private final byte kind;
+    private final AccountTable accounts;
+
+    LocalAccountRepository(LocalDatabase db, byte kind) {
+        this.db = db;
+        this.kind = kind;
+        this.accounts = db.accounts(kind);
+    }
+
+    @Override
+    public boolean exists(String username) {
+        db.lock.readLock().lock();
+        try {
+            return accounts.find(username) >= 0;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Credentials find(String username) {
+        db.lock.readLock().lock();
+        try {
+            int id = accounts.find(username);
+            return id < 0 ? null : accounts.get(id);
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(Credentials account) throws SQLException {
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            if (accounts.find(account.getUsername()) >= 0) {
+                throw LocalDatabase.primaryKeyViolation("accounts");
+            }
+            lsn = db.commit(LocalDatabase.addAccount(kind, account));
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+    }
+
+    @Override
+    public void saveAll(List<Credentials> accounts) throws SQLException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        long lsn = 0;
+        db.lock.writeLock().lock();
+        try {
+            // check everything first so a failure leaves nothing behind
+            Set<String> keys = new HashSet<>();
+            for (Credentials account : accounts) {
+                if (this.accounts.find(account.getUsername()) >= 0
+                        || !keys.add(account.getUsername().toLowerCase(Locale.ROOT))) {
+                    throw LocalDatabase.primaryKeyViolation("accounts");
+                }
+            }
+            for (Credentials account : accounts) {
+                lsn = db.commit(LocalDatabase.addAccount(kind, account));
+            }
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) {
+        db.lock.readLock().lock();
+        try {
+            Set<String> existing = new HashSet<>();
+            for (String username : usernames) {
+                if (accounts.find(username) >= 0) {
+                    existing.add(username.toLowerCase(Locale.ROOT));
+                }
+            }
+            return existing;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateHash(String username, byte[] hash, int iterations, int keyLength) throws SQLException {
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            int id = accounts.find(username);
+            if (id < 0) {
+                return;
+            }
+            lsn = db.commit(LocalDatabase.updateHash(kind, id, hash, iterations, keyLength));
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+    }
+}
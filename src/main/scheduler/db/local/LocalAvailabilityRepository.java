@@ -0,0 +1,140 @@
+package scheduler.db.local;
+
+import scheduler.db.AvailabilityRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class LocalAvailabilityRepository implements AvailabilityRepository {
+
+    private final LocalDatabase db;
+
+    LocalAvailabilityRepository(LocalDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public void add(Date d, String caregiverUsername) throws SQLException {
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            int caregiver = caregiverId(caregiverUsername);
+            int day = (int) d.toLocalDate().toEpochDay();
+            SlotSet slots = db.availabilities.get(day);
+            if (slots != null && slots.contains(caregiver, db.caregivers::compare)) {
+                throw LocalDatabase.primaryKeyViolation("Availabilities");
+            }
+            lsn = db.commit(LocalDatabase.addAvailability(caregiver).putInt(1).putInt(day));
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+    }
+
+    @Override
+    public boolean[] addAll(String caregiverUsername, List<Date> dates) throws SQLException {
+        boolean[] added = new boolean[dates.size()];
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            int caregiver = caregiverId(caregiverUsername);
+            Set<Integer> newDays = new HashSet<>();
+            for (int i = 0; i < dates.size(); i++) {
+                int day = (int) dates.get(i).toLocalDate().toEpochDay();
+                SlotSet slots = db.availabilities.get(day);
+                added[i] = (slots == null || !slots.contains(caregiver, db.caregivers::compare)) && newDays.add(day);
+            }
+            if (newDays.isEmpty()) {
+                return added;
+            }
+            Codec record = LocalDatabase.addAvailability(caregiver).putInt(newDays.size());
+            for (int day : newDays) {
+                record.putInt(day);
+            }
+            lsn = db.commit(record);
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+        return added;
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) {
+        db.lock.readLock().lock();
+        try {
+            List<String> caregivers = new ArrayList<>();
+            SlotSet slots = db.availabilities.get((int) d.toLocalDate().toEpochDay());
+            if (slots != null) {
+                for (int i = 0; i < slots.size(); i++) {
+                    caregivers.add(db.caregivers.name(slots.get(i)));
+                }
+            }
+            return caregivers;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(Date d, String caregiverUsername) {
+        db.lock.readLock().lock();
+        try {
+            int caregiver = db.caregivers.find(caregiverUsername);
+            SlotSet slots = db.availabilities.get((int) d.toLocalDate().toEpochDay());
+            return caregiver >= 0 && slots != null && slots.contains(caregiver, db.caregivers::compare);
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Date, Integer> countByDay(Date from, Date to) {
+        db.lock.readLock().lock();
+        try {
+            int fromDay = (int) from.toLocalDate().toEpochDay();
+            int toDay = (int) to.toLocalDate().toEpochDay();
+            Map<Date, Integer> counts = new LinkedHashMap<>();
+            for (Map.Entry<Integer, SlotSet> day : db.availabilities.subMap(fromDay, true, toDay, true).entrySet()) {
+                if (day.getValue().size() > 0) {
+                    counts.put(Date.valueOf(LocalDate.ofEpochDay(day.getKey())), day.getValue().size());
+                }
+            }
+            return counts;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachFrom(Date from, SlotConsumer consumer) {
+        db.lock.readLock().lock();
+        try {
+            int fromDay = (int) from.toLocalDate().toEpochDay();
+            for (Map.Entry<Integer, SlotSet> day : db.availabilities.tailMap(fromDay, true).entrySet()) {
+                Date d = Date.valueOf(LocalDate.ofEpochDay(day.getKey()));
+                SlotSet slots = day.getValue();
+                for (int i = 0; i < slots.size(); i++) {
+                    consumer.accept(d, db.caregivers.name(slots.get(i)));
+                }
+            }
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    private int caregiverId(String caregiverUsername) throws SQLException {
+        int caregiver = db.caregivers.find(caregiverUsername);
+        if (caregiver < 0) {
+            throw LocalDatabase.foreignKeyViolation("Availabilities");
+        }
+        return caregiver;
+    }
+}
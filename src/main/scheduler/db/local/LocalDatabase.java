@@ -0,0 +1,433 @@
+package scheduler.db.local;
+
+import scheduler.db.AccountRepository;
+import scheduler.db.AvailabilityRepository;
+import scheduler.db.Credentials;
+import scheduler.db.ReservationRepository;
+import scheduler.db.VaccineRepository;
+import scheduler.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * The five tables of create.sql held in process memory, behind one read-write lock, so every
+ * operation is atomic and isolated. Keys compare case-insensitively like the default SQL Server
+ * collation, and the primary and foreign keys of create.sql are enforced with the same SQL states
+ * SQL Server reports.
+ *
+ * Accounts and vaccines get dense int ids, and availabilities and appointments are stored as int
+ * arrays of those ids. Every change is a record in the write-ahead log (LocalDataDir/wal.log):
+ * it is applied to the tables and appended to the log under the write lock, and the caller waits
+ * for the group commit after releasing the lock. Every LocalSnapshotMillis, or once the log is
+ * larger than LocalWalMaxBytes, the tables are written to LocalDataDir/snapshot.bin and the log is
+ * emptied. At startup the snapshot is mapped into memory and the log is replayed on top of it.
+ */
+public class LocalDatabase {
+
+    // log record types
+    private static final byte ADD_ACCOUNT = 1;
+    private static final byte UPDATE_HASH = 2;
+    private static final byte ADD_AVAILABILITY = 3;
+    private static final byte ADD_VACCINE = 4;
+    private static final byte APPLY_DELTAS = 5;
+    // RESERVE and CANCEL are from logs written before the appointment's dose moved in the same record;
+    // their doses came in a separate APPLY_DELTAS, so replaying them leaves the doses alone
+    private static final byte RESERVE = 6;
+    private static final byte CANCEL = 7;
+    private static final byte RESERVE_DOSE = 8;
+    private static final byte CANCEL_DOSE = 9;
+    private static final byte REMOVE_AVAILABILITY = 10;
+
+    // which account table an ADD_ACCOUNT or UPDATE_HASH record is for
+    static final byte PATIENT = 0;
+    static final byte CAREGIVER = 1;
+
+    private static final int SNAPSHOT_MAGIC = 0x53434844;
+    private static final int SNAPSHOT_VERSION = 1;
+    // the dose inventory only ever retries its latest flush, so a short memory is enough
+    private static final int MAX_FLUSH_IDS = 1024;
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    final AccountTable patients = new AccountTable();
+    final AccountTable caregivers = new AccountTable();
+    // epoch day -> caregivers available that day
+    final TreeMap<Integer, SlotSet> availabilities = new TreeMap<>();
+    final VaccineTable vaccines = new VaccineTable();
+    final LinkedHashSet<String> doseFlushes = new LinkedHashSet<>();
+    final AppointmentTable appointments = new AppointmentTable();
+
+    private final Path snapshotFile;
+    private final WriteAheadLog wal;
+    private final long walMaxBytes;
+    private final ScheduledExecutorService snapshotter;
+    private final AtomicBoolean snapshotQueued = new AtomicBoolean(false);
+
+    private final AccountRepository patientRepository = new LocalAccountRepository(this, PATIENT);
+    private final AccountRepository caregiverRepository = new LocalAccountRepository(this, CAREGIVER);
+    private final AvailabilityRepository availabilityRepository = new LocalAvailabilityRepository(this);
+    private final VaccineRepository vaccineRepository = new LocalVaccineRepository(this);
+    private final ReservationRepository reservationRepository = new LocalReservationRepository(this);
+
+    public LocalDatabase() throws IOException {
+        Path dir = Paths.get(Config.getString("LocalDataDir", "local-data"));
+        boolean fsync = Config.getBoolean("LocalFsync", true);
+        long snapshotMillis = Math.max(1000, Config.getLong("LocalSnapshotMillis", 300_000));
+        this.walMaxBytes = Config.getLong("LocalWalMaxBytes", 64L * 1024 * 1024);
+
+        Files.createDirectories(dir);
+        this.snapshotFile = dir.resolve("snapshot.bin");
+        long snapshotLsn = loadSnapshot();
+        this.wal = new WriteAheadLog(dir.resolve("wal.log"), fsync, snapshotLsn, this::apply);
+
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "local-db-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        // the next start only has to map the snapshot
+        Runtime.getRuntime().addShutdownHook(new Thread(this::snapshotQuietly, "local-db-shutdown"));
+    }
+
+    public AccountRepository patients() {
+        return patientRepository;
+    }
+
+    public AccountRepository caregivers() {
+        return caregiverRepository;
+    }
+
+    public AvailabilityRepository availabilities() {
+        return availabilityRepository;
+    }
+
+    public VaccineRepository vaccines() {
+        return vaccineRepository;
+    }
+
+    public ReservationRepository reservations() {
+        return reservationRepository;
+    }
+
+    AccountTable accounts(byte kind) {
+        return kind == PATIENT ? patients : caregivers;
+    }
+
+    // log records; build one with the write lock held and pass it to commit()
+
+    static Codec addAccount(byte kind, Credentials account) {
+        Codec record = new Codec().putByte(ADD_ACCOUNT).putByte(kind);
+        writeCredentials(record, account);
+        return record;
+    }
+
+    static Codec updateHash(byte kind, int id, byte[] hash, int iterations, int keyLength) {
+        return new Codec().putByte(UPDATE_HASH).putByte(kind).putInt(id).putBytes(hash).putInt(iterations).putInt(keyLength);
+    }
+
+    // followed by the number of days and the epoch days
+    static Codec addAvailability(int caregiver) {
+        return new Codec().putByte(ADD_AVAILABILITY).putInt(caregiver);
+    }
+
+    static Codec removeAvailability(int caregiver, int day) {
+        return new Codec().putByte(REMOVE_AVAILABILITY).putInt(caregiver).putInt(day);
+    }
+
+    static Codec addVaccine(String name, long doses) {
+        return new Codec().putByte(ADD_VACCINE).putString(name).putLong(doses);
+    }
+
+    // followed by the number of deltas and (vaccine id, delta) pairs
+    static Codec applyDeltas(String flushId) {
+        return new Codec().putByte(APPLY_DELTAS).putString(flushId);
+    }
+
+    static Codec reserve(int appointmentId, int patient, int caregiver, int vaccine, int day) {
+        return new Codec().putByte(RESERVE_DOSE).putInt(appointmentId).putInt(patient).putInt(caregiver)
+                .putInt(vaccine).putInt(day);
+    }
+
+    static Codec cancel(int appointmentId) {
+        return new Codec().putByte(CANCEL_DOSE).putInt(appointmentId);
+    }
+
+    // Applies the record to the tables and appends it to the log. Call with the write lock held,
+    // then call sync() with the returned lsn after releasing it.
+    long commit(Codec record) {
+        apply(record.asBuffer());
+        return wal.append(record);
+    }
+
+    // waits until the record with this lsn is on disk
+    void sync(long lsn) throws SQLException {
+        try {
+            wal.sync(lsn);
+        } catch (IOException e) {
+            throw new SQLException("Could not write the local database log", "HY000", e);
+        }
+        if (wal.size() > walMaxBytes && snapshotQueued.compareAndSet(false, true)) {
+            snapshotter.execute(this::snapshotQuietly);
+        }
+    }
+
+    // the only place the tables change, for new records and for records replayed from the log
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        switch (type) {
+            case ADD_ACCOUNT: {
+                AccountTable accounts = accounts(record.get());
+                accounts.insert(readCredentials(record));
+                break;
+            }
+            case UPDATE_HASH: {
+                AccountTable accounts = accounts(record.get());
+                int id = record.getInt();
+                Credentials account = accounts.get(id);
+                byte[] hash = Codec.getBytes(record);
+                int iterations = record.getInt();
+                int keyLength = record.getInt();
+                accounts.update(id, new Credentials(account.getUsername(), account.getSalt(), hash, iterations, keyLength));
+                break;
+            }
+            case ADD_AVAILABILITY: {
+                int caregiver = record.getInt();
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    slots(record.getInt()).add(caregiver, caregivers::compare);
+                }
+                break;
+            }
+            case REMOVE_AVAILABILITY: {
+                int caregiver = record.getInt();
+                removeSlot(record.getInt(), caregiver);
+                break;
+            }
+            case ADD_VACCINE:
+                vaccines.insert(Codec.getString(record), record.getLong());
+                break;
+            case APPLY_DELTAS: {
+                rememberFlush(Codec.getString(record));
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    vaccines.add(record.getInt(), record.getLong());
+                }
+                break;
+            }
+            case RESERVE:
+            case RESERVE_DOSE: {
+                int appointmentId = record.getInt();
+                int patient = record.getInt();
+                int caregiver = record.getInt();
+                int vaccine = record.getInt();
+                int day = record.getInt();
+                removeSlot(day, caregiver);
+                appointments.put(appointmentId, patient, caregiver, vaccine, day);
+                if (type == RESERVE_DOSE) {
+                    vaccines.add(vaccine, -1);
+                }
+                break;
+            }
+            case CANCEL:
+            case CANCEL_DOSE: {
+                int appointmentId = record.getInt();
+                if (type == CANCEL_DOSE) {
+                    vaccines.add(appointments.vaccine(appointmentId), 1);
+                }
+                slots(appointments.day(appointmentId)).add(appointments.caregiver(appointmentId), caregivers::compare);
+                appointments.remove(appointmentId);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown log record type " + type);
+        }
+    }
+
+    SlotSet slots(int day) {
+        return availabilities.computeIfAbsent(day, key -> new SlotSet());
+    }
+
+    private void removeSlot(int day, int caregiver) {
+        SlotSet slots = availabilities.get(day);
+        if (slots != null && slots.remove(caregiver, caregivers::compare) && slots.size() == 0) {
+            availabilities.remove(day);
+        }
+    }
+
+    private void rememberFlush(String flushId) {
+        doseFlushes.add(flushId);
+        if (doseFlushes.size() > MAX_FLUSH_IDS) {
+            Iterator<String> oldest = doseFlushes.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("Could not write a snapshot of the local database: " + e.getMessage());
+        } finally {
+            snapshotQueued.set(false);
+        }
+    }
+
+    // Writes the tables to a new snapshot file, swaps it in and empties the log. Writers wait for
+    // the duration; the tables are small enough for that to take milliseconds.
+    public void snapshot() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (wal.size() == 0 && Files.exists(snapshotFile)) {
+                return;
+            }
+            Codec out = new Codec();
+            writeTables(out, wal.lastLsn());
+            CRC32 crc = new CRC32();
+            crc.update(out.array(), 0, out.size());
+            out.putInt((int) crc.getValue());
+
+            Path temp = snapshotFile.resolveSibling("snapshot.tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = out.asBuffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // a crash before this point replays records the snapshot already has; their lsn says to skip them
+            wal.reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // returns the lsn of the last record the snapshot contains, 0 if there is no snapshot
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer body = in.duplicate();
+            body.limit(body.limit() - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (in.getInt(in.limit() - 4) != (int) crc.getValue() || in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshotFile + " is corrupt");
+            }
+            if (in.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException(snapshotFile + " has an unknown version");
+            }
+            return readTables(in);
+        }
+    }
+
+    private void writeTables(Codec out, long lsn) {
+        out.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(lsn);
+        for (AccountTable accounts : new AccountTable[]{patients, caregivers}) {
+            out.putInt(accounts.size());
+            for (int id = 0; id < accounts.size(); id++) {
+                writeCredentials(out, accounts.get(id));
+            }
+        }
+        out.putInt(vaccines.size());
+        for (int id = 0; id < vaccines.size(); id++) {
+            out.putString(vaccines.name(id)).putLong(vaccines.doses(id));
+        }
+        out.putInt(doseFlushes.size());
+        for (String flushId : doseFlushes) {
+            out.putString(flushId);
+        }
+        out.putInt(availabilities.size());
+        for (Map.Entry<Integer, SlotSet> day : availabilities.entrySet()) {
+            SlotSet slots = day.getValue();
+            out.putInt(day.getKey()).putInt(slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                out.putInt(slots.get(i));
+            }
+        }
+        out.putInt(appointments.highestId());
+        for (int id = 1; id <= appointments.highestId(); id++) {
+            if (appointments.exists(id)) {
+                out.putInt(id).putInt(appointments.patient(id)).putInt(appointments.caregiver(id))
+                        .putInt(appointments.vaccine(id)).putInt(appointments.day(id));
+            }
+        }
+        out.putInt(0);
+    }
+
+    private long readTables(ByteBuffer in) {
+        long lsn = in.getLong();
+        for (AccountTable accounts : new AccountTable[]{patients, caregivers}) {
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                accounts.insert(readCredentials(in));
+            }
+        }
+        int vaccineCount = in.getInt();
+        for (int i = 0; i < vaccineCount; i++) {
+            vaccines.insert(Codec.getString(in), in.getLong());
+        }
+        int flushCount = in.getInt();
+        for (int i = 0; i < flushCount; i++) {
+            doseFlushes.add(Codec.getString(in));
+        }
+        int dayCount = in.getInt();
+        for (int i = 0; i < dayCount; i++) {
+            SlotSet slots = slots(in.getInt());
+            int count = in.getInt();
+            for (int j = 0; j < count; j++) {
+                slots.add(in.getInt(), caregivers::compare);
+            }
+        }
+        appointments.extendTo(in.getInt());
+        // the appointments end with id 0
+        for (int id = in.getInt(); id != 0; id = in.getInt()) {
+            appointments.put(id, in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        }
+        return lsn;
+    }
+
+    private static void writeCredentials(Codec out, Credentials account) {
+        out.putString(account.getUsername()).putBytes(account.getSalt()).putBytes(account.getHash())
+                .putInt(account.getIterations()).putInt(account.getKeyLength());
+    }
+
+    private static Credentials readCredentials(ByteBuffer in) {
+        String username = Codec.getString(in);
+        byte[] salt = Codec.getBytes(in);
+        byte[] hash = Codec.getBytes(in);
+        return new Credentials(username, salt, hash, in.getInt(), in.getInt());
+    }
+
+    static SQLException primaryKeyViolation(String table) {
+        return new SQLException("Violation of PRIMARY KEY constraint on " + table, "23000", 2627);
+    }
+
+    static SQLException foreignKeyViolation(String table) {
+        return new SQLException("The statement conflicted with a FOREIGN KEY constraint on " + table, "23000", 547);
+    }
+}
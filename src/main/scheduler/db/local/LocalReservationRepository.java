@@ -0,0 +1,215 @@
+package scheduler.db.local;
+
+import scheduler.db.ReservationRepository;
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class LocalReservationRepository implements ReservationRepository {
+
+    private final LocalDatabase db;
+
+    LocalReservationRepository(LocalDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public Reservation reserve(String patientUsername, String vaccineName, Date d, String preferredCaregiver)
+            throws SQLException {
+        Reservation reservation;
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            int patient = db.patients.find(patientUsername);
+            int vaccine = db.vaccines.find(vaccineName);
+            if (patient < 0 || vaccine < 0) {
+                throw LocalDatabase.foreignKeyViolation("Reservations");
+            }
+            // the dose is checked under the same lock that books it, as Sql.RESERVE does
+            if (db.vaccines.doses(vaccine) < 1) {
+                return Reservation.failed(Reservation.Status.NO_DOSES, vaccineName, d);
+            }
+            int day = (int) d.toLocalDate().toEpochDay();
+            SlotSet slots = db.availabilities.get(day);
+            if (slots == null || slots.size() == 0) {
+                return Reservation.failed(Reservation.Status.NO_CAREGIVER, vaccineName, d);
+            }
+            int preferred = preferredCaregiver == null ? -1 : db.caregivers.find(preferredCaregiver);
+            int caregiver = preferred >= 0 && slots.contains(preferred, db.caregivers::compare) ? preferred : slots.get(0);
+            int appointmentId = db.appointments.nextId();
+            lsn = db.commit(LocalDatabase.reserve(appointmentId, patient, caregiver, vaccine, day));
+            reservation = Reservation.booked(appointmentId, db.caregivers.name(caregiver), vaccineName, d);
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+        return reservation;
+    }
+
+    @Override
+    public List<Reservation> reserveAll(List<String> patientUsernames, List<String> preferredCaregivers,
+                                        String vaccineName, Date d) throws SQLException {
+        List<Reservation> result = new ArrayList<>(patientUsernames.size());
+        long lsn = -1;
+        db.lock.writeLock().lock();
+        try {
+            int vaccine = db.vaccines.find(vaccineName);
+            int[] patients = new int[patientUsernames.size()];
+            for (int i = 0; i < patients.length; i++) {
+                patients[i] = db.patients.find(patientUsernames.get(i));
+                if (patients[i] < 0 || vaccine < 0) {
+                    // checked before anything is written, as the whole transaction fails in SQL Server
+                    throw LocalDatabase.foreignKeyViolation("Reservations");
+                }
+            }
+            int day = (int) d.toLocalDate().toEpochDay();
+            for (int i = 0; i < patients.length; i++) {
+                if (db.vaccines.doses(vaccine) < 1) {
+                    result.add(Reservation.failed(Reservation.Status.NO_DOSES, vaccineName, d));
+                    continue;
+                }
+                SlotSet slots = db.availabilities.get(day);
+                if (slots == null || slots.size() == 0) {
+                    result.add(Reservation.failed(Reservation.Status.NO_CAREGIVER, vaccineName, d));
+                    continue;
+                }
+                String preferredCaregiver = preferredCaregivers.get(i);
+                int preferred = preferredCaregiver == null ? -1 : db.caregivers.find(preferredCaregiver);
+                int caregiver = preferred >= 0 && slots.contains(preferred, db.caregivers::compare) ? preferred : slots.get(0);
+                int appointmentId = db.appointments.nextId();
+                lsn = db.commit(LocalDatabase.reserve(appointmentId, patients[i], caregiver, vaccine, day));
+                result.add(Reservation.booked(appointmentId, db.caregivers.name(caregiver), vaccineName, d));
+            }
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        // one wait for the log covers the whole batch
+        if (lsn >= 0) {
+            db.sync(lsn);
+        }
+        return result;
+    }
+
+    @Override
+    public Appointment cancel(int appointmentId, String patientUsername, String caregiverUsername)
+            throws SQLException {
+        Appointment appointment;
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            if (!db.appointments.exists(appointmentId)) {
+                return null;
+            }
+            appointment = toAppointment(appointmentId);
+            boolean owned = appointment.getPatientUsername().equalsIgnoreCase(patientUsername)
+                    || appointment.getCaregiverUsername().equalsIgnoreCase(caregiverUsername);
+            if (!owned) {
+                return null;
+            }
+            // the slot goes back unless the caregiver uploaded the date again meanwhile
+            lsn = db.commit(LocalDatabase.cancel(appointmentId));
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+        return appointment;
+    }
+
+    @Override
+    public List<Appointment> cancelDay(Date d, String caregiverUsername) throws SQLException {
+        int day = (int) d.toLocalDate().toEpochDay();
+        List<Appointment> cancelled = new ArrayList<>();
+        long lsn = -1;
+        db.lock.writeLock().lock();
+        try {
+            int caregiver = db.caregivers.find(caregiverUsername);
+            for (int id = 1; caregiver >= 0 && id <= db.appointments.highestId(); id++) {
+                if (db.appointments.exists(id) && db.appointments.day(id) == day
+                        && db.appointments.caregiver(id) == caregiver) {
+                    cancelled.add(toAppointment(id));
+                    lsn = db.commit(LocalDatabase.cancel(id));
+                }
+            }
+            // the caregiver calls off the whole day, so their free slot goes too, as in Sql.CANCEL_DAY
+            SlotSet slots = db.availabilities.get(day);
+            if (caregiver >= 0 && slots != null && slots.contains(caregiver, db.caregivers::compare)) {
+                lsn = db.commit(LocalDatabase.removeAvailability(caregiver, day));
+            }
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        if (lsn >= 0) {
+            db.sync(lsn);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver(Date from) {
+        int fromDay = (int) from.toLocalDate().toEpochDay();
+        db.lock.readLock().lock();
+        try {
+            Map<String, Integer> counts = new HashMap<>();
+            for (int id = 1; id <= db.appointments.highestId(); id++) {
+                if (db.appointments.exists(id) && db.appointments.day(id) >= fromDay) {
+                    counts.merge(db.caregivers.name(db.appointments.caregiver(id)), 1, Integer::sum);
+                }
+            }
+            return counts;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int forEachByPatient(String patientUsername, int afterId, Date from, Date to, int limit,
+                                AppointmentConsumer consumer) {
+        return forEachBy(true, patientUsername, afterId, from, to, limit, consumer);
+    }
+
+    @Override
+    public int forEachByCaregiver(String caregiverUsername, int afterId, Date from, Date to, int limit,
+                                  AppointmentConsumer consumer) {
+        return forEachBy(false, caregiverUsername, afterId, from, to, limit, consumer);
+    }
+
+    private int forEachBy(boolean byPatient, String username, int afterId, Date from, Date to, int limit,
+                          AppointmentConsumer consumer) {
+        int firstDay = from != null ? (int) from.toLocalDate().toEpochDay() : Integer.MIN_VALUE;
+        int lastDay = to != null ? (int) to.toLocalDate().toEpochDay() : Integer.MAX_VALUE;
+        // the page is picked under the lock and handed over after it, so slow output does not block writers
+        List<Appointment> page = new ArrayList<>(Math.min(limit, 128));
+        db.lock.readLock().lock();
+        try {
+            int user = byPatient ? db.patients.find(username) : db.caregivers.find(username);
+            for (int id = Math.max(afterId, 0) + 1; user >= 0 && id <= db.appointments.highestId()
+                    && page.size() < limit; id++) {
+                if (db.appointments.exists(id)
+                        && (byPatient ? db.appointments.patient(id) : db.appointments.caregiver(id)) == user
+                        && db.appointments.day(id) >= firstDay && db.appointments.day(id) <= lastDay) {
+                    page.add(toAppointment(id));
+                }
+            }
+        } finally {
+            db.lock.readLock().unlock();
+        }
+        for (Appointment appointment : page) {
+            consumer.accept(appointment.getAppointmentId(), appointment.getPatientUsername(),
+                    appointment.getCaregiverUsername(), appointment.getVaccineName(), appointment.getTime());
+        }
+        return page.size();
+    }
+
+    private Appointment toAppointment(int id) {
+        return new Appointment(id, db.patients.name(db.appointments.patient(id)),
+                db.caregivers.name(db.appointments.caregiver(id)), db.vaccines.name(db.appointments.vaccine(id)),
+                Date.valueOf(LocalDate.ofEpochDay(db.appointments.day(id))));
+    }
+}
@@ -0,0 +1,81 @@
+package scheduler.db.local;
+
+import scheduler.db.DoseMovement;
+import scheduler.db.VaccineRepository;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class LocalVaccineRepository implements VaccineRepository {
+
+    private final LocalDatabase db;
+
+    LocalVaccineRepository(LocalDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public void save(String vaccineName, int doses) throws SQLException {
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            if (db.vaccines.find(vaccineName) >= 0) {
+                throw LocalDatabase.primaryKeyViolation("Vaccines");
+            }
+            lsn = db.commit(LocalDatabase.addVaccine(vaccineName, doses));
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+    }
+
+    @Override
+    public Map<String, Integer> findAll() {
+        db.lock.readLock().lock();
+        try {
+            Map<String, Integer> vaccines = new LinkedHashMap<>();
+            for (int id = 0; id < db.vaccines.size(); id++) {
+                vaccines.put(db.vaccines.name(id), (int) db.vaccines.doses(id));
+            }
+            return vaccines;
+        } finally {
+            db.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean append(String flushId, List<DoseMovement> movements) throws SQLException {
+        long lsn;
+        db.lock.writeLock().lock();
+        try {
+            if (db.doseFlushes.contains(flushId)) {
+                return false;
+            }
+            // the log is the ledger here: one record per flush with a movement per vaccine, applied to
+            // the tables at once and folded into snapshot.bin when it is next written
+            Codec ids = new Codec();
+            int count = 0;
+            for (DoseMovement movement : movements) {
+                int vaccine = db.vaccines.find(movement.getVaccineName());
+                if (vaccine >= 0) {
+                    ids.putInt(vaccine).putLong(movement.getDoses());
+                    count++;
+                }
+            }
+            Codec record = LocalDatabase.applyDeltas(flushId).putInt(count).put(ids.array(), 0, ids.size());
+            lsn = db.commit(record);
+        } finally {
+            db.lock.writeLock().unlock();
+        }
+        db.sync(lsn);
+        return true;
+    }
+
+    @Override
+    public int compact(int limit) {
+        // writing snapshot.bin already folds the log into the snapshot
+        return 0;
+    }
+}
@@ -0,0 +1,66 @@
+package scheduler.db.local;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+// the caregiver ids available on one day, as a sorted int array ordered by username
+final class SlotSet {
+
+    private int[] ids = new int[4];
+    private int size = 0;
+
+    int size() {
+        return size;
+    }
+
+    int get(int i) {
+        return ids[i];
+    }
+
+    boolean contains(int id, IntBinaryOperator order) {
+        return search(id, order) >= 0;
+    }
+
+    boolean add(int id, IntBinaryOperator order) {
+        int position = search(id, order);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+        return true;
+    }
+
+    boolean remove(int id, IntBinaryOperator order) {
+        int position = search(id, order);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    // like Arrays.binarySearch, with the order given by the caller
+    private int search(int id, IntBinaryOperator order) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = order.applyAsInt(ids[middle], id);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
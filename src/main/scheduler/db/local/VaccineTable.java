@@ -0,0 +1,49 @@
+package scheduler.db.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Vaccines, with the dose counts in a primitive array indexed by vaccine id
+final class VaccineTable {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private long[] doses = new long[8];
+
+    // -1 if there is no such vaccine
+    int find(String name) {
+        Integer id = ids.get(name.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names.get(id);
+    }
+
+    long doses(int id) {
+        return doses[id];
+    }
+
+    int insert(String name, long available) {
+        int id = names.size();
+        if (id == doses.length) {
+            doses = Arrays.copyOf(doses, id * 2);
+        }
+        ids.put(name.toLowerCase(Locale.ROOT), id);
+        names.add(name);
+        doses[id] = available;
+        return id;
+    }
+
+    void add(int id, long delta) {
+        doses[id] += delta;
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,184 @@
+package scheduler.db.local;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log of the local database. Every record is framed as
+ *   [int payload length][int CRC32 of lsn + payload][long lsn][payload]
+ * and a torn or corrupt tail left by a crash is cut off when the log is opened.
+ *
+ * Commits are grouped: append() only buffers the record, and the first thread to call sync()
+ * writes and forces everything buffered so far while later callers wait for it, so one fsync
+ * covers every commit that arrived in the meantime.
+ */
+final class WriteAheadLog {
+
+    interface RecordHandler {
+        void apply(ByteBuffer payload);
+    }
+
+    private static final int HEADER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final boolean fsync;
+
+    private Codec pending = new Codec();
+    private Codec writing = new Codec();
+    private long lastLsn;
+    private long durableLsn;
+    private long bytesOnDisk;
+    private boolean flushing = false;
+    private IOException failure = null;
+
+    // replays the records after afterLsn (the ones the snapshot does not contain yet) into the handler
+    WriteAheadLog(Path file, boolean fsync, long afterLsn, RecordHandler handler) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.fsync = fsync;
+        this.lastLsn = afterLsn;
+        replay(afterLsn, handler);
+        this.durableLsn = lastLsn;
+    }
+
+    private void replay(long afterLsn, RecordHandler handler) throws IOException {
+        long size = channel.size();
+        ByteBuffer log = ByteBuffer.allocate((int) size);
+        while (log.hasRemaining() && channel.read(log, log.position()) >= 0) {
+            // read until full
+        }
+        log.flip();
+
+        CRC32 crc = new CRC32();
+        int end = 0;
+        while (log.remaining() >= HEADER_SIZE) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            long lsn = log.getLong();
+            if (length < 0 || length > log.remaining()) {
+                break;
+            }
+            ByteBuffer payload = log.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(lsnBytes(lsn));
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (lsn > afterLsn) {
+                handler.apply(payload);
+                lastLsn = lsn;
+            }
+            log.position(log.position() + length);
+            end = log.position();
+        }
+        if (end < size) {
+            // the tail of a write that never completed
+            channel.truncate(end);
+        }
+        channel.position(end);
+        bytesOnDisk = end;
+    }
+
+    // buffers the record and returns its lsn; it is durable once sync(lsn) returns
+    synchronized long append(Codec record) {
+        long lsn = ++lastLsn;
+        CRC32 crc = new CRC32();
+        crc.update(lsnBytes(lsn));
+        crc.update(record.array(), 0, record.size());
+        pending.putInt(record.size()).putInt((int) crc.getValue()).putLong(lsn).put(record.array(), 0, record.size());
+        return lsn;
+    }
+
+    void sync(long lsn) throws IOException {
+        long batchLsn;
+        Codec batch;
+        synchronized (this) {
+            while (true) {
+                if (failure != null) {
+                    throw new IOException("The write-ahead log failed earlier", failure);
+                }
+                if (durableLsn >= lsn) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            // this thread writes everything buffered so far, for itself and everyone waiting
+            flushing = true;
+            batch = pending;
+            pending = writing;
+            writing = batch;
+            batchLsn = lastLsn;
+        }
+        try {
+            ByteBuffer buffer = batch.asBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+            synchronized (this) {
+                bytesOnDisk += batch.size();
+                batch.reset();
+                durableLsn = batchLsn;
+                flushing = false;
+                notifyAll();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                flushing = false;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    // drops every record once a snapshot holds their effects
+    synchronized void reset() throws IOException {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        channel.truncate(0);
+        channel.position(0);
+        if (fsync) {
+            channel.force(true);
+        }
+        pending.reset();
+        bytesOnDisk = 0;
+        durableLsn = lastLsn;
+        notifyAll();
+    }
+
+    synchronized long lastLsn() {
+        return lastLsn;
+    }
+
+    synchronized long size() {
+        return bytesOnDisk + pending.size();
+    }
+
+    private static byte[] lsnBytes(long lsn) {
+        return ByteBuffer.allocate(8).putLong(lsn).array();
+    }
+}
@@ -0,0 +1,177 @@
+package scheduler.db.sqlserver;
+
+import scheduler.db.ConnectionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date at startup. The scripts are resources/migrations/V<n>__<name>.sql,
+ * applied in version order, each in its own transaction, and recorded in SchemaHistory with a checksum.
+ * A script that was changed after it was applied is an error: add a new version instead.
+ *
+ * Scripts are split into batches on lines that hold only GO, as in SSMS. An application lock, taken
+ * before anything else, keeps two schedulers that start at the same time from migrating together.
+ */
+public class SchemaMigrations {
+
+    // every migration, in order; a new one is appended here and as a file
+    private static final String[] MIGRATIONS = {
+            "V1__baseline.sql",
+            "V2__workload_indexes.sql",
+            "V3__dose_ledger.sql",
+            "V4__widen_hash.sql",
+            "V5__ledger_without_vaccine_lock.sql",
+    };
+
+    private static final String RESOURCE_DIR = "/resources/migrations/";
+
+    public static void migrate() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String createHistory = "IF OBJECT_ID('SchemaHistory') IS NULL CREATE TABLE SchemaHistory (" +
+                "Version int PRIMARY KEY, Script varchar(255), Checksum bigint, " +
+                "AppliedAt datetime2 DEFAULT SYSUTCDATETIME())";
+        // held by the session for the whole run, so even SchemaHistory is created by one scheduler only
+        String lock = "DECLARE @result int; " +
+                "EXEC @result = sp_getapplock @Resource = 'SchemaMigrations', @LockMode = 'Exclusive', " +
+                "@LockOwner = 'Session', @LockTimeout = 60000; " +
+                "IF @result < 0 THROW 50000, 'Timed out waiting for another scheduler to migrate the schema', 1;";
+        String unlock = "EXEC sp_releaseapplock @Resource = 'SchemaMigrations', @LockOwner = 'Session';";
+        String getApplied = "SELECT Checksum FROM SchemaHistory WHERE Version = ?";
+        String recordApplied = "INSERT INTO SchemaHistory (Version, Script, Checksum) VALUES (?, ?, ?)";
+        boolean locked = false;
+        try {
+            try (Statement lockStatement = con.createStatement()) {
+                lockStatement.execute(lock);
+            }
+            locked = true;
+            con.setAutoCommit(false);
+            try (Statement historyStatement = con.createStatement()) {
+                historyStatement.execute(createHistory);
+            }
+            con.commit();
+            for (String script : MIGRATIONS) {
+                int version = versionOf(script);
+                String text = load(script);
+                long checksum = checksum(text);
+
+                Long applied = null;
+                try (PreparedStatement getStatement = con.prepareStatement(getApplied)) {
+                    getStatement.setInt(1, version);
+                    try (ResultSet resultSet = getStatement.executeQuery()) {
+                        if (resultSet.next()) {
+                            applied = resultSet.getLong(1);
+                        }
+                    }
+                }
+                if (applied != null) {
+                    con.rollback();
+                    if (applied != checksum) {
+                        throw new IllegalStateException("Migration " + script + " was changed after it was applied");
+                    }
+                    continue;
+                }
+
+                try (Statement statement = con.createStatement()) {
+                    for (String batch : batches(text)) {
+                        statement.execute(batch);
+                    }
+                }
+                try (PreparedStatement recordStatement = con.prepareStatement(recordApplied)) {
+                    recordStatement.setInt(1, version);
+                    recordStatement.setString(2, script);
+                    recordStatement.setLong(3, checksum);
+                    recordStatement.executeUpdate();
+                }
+                con.commit();
+                // stderr, so the JSON lines of --batch and --script on stdout stay parseable
+                System.err.println("Applied schema migration " + script);
+            }
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            // keep the server's message, it says which statement of the script failed
+            throw e;
+        } finally {
+            try {
+                con.setAutoCommit(true);
+                if (locked) {
+                    // a pooled connection outlives this run, so the lock is not released by closing it
+                    try (Statement unlockStatement = con.createStatement()) {
+                        unlockStatement.execute(unlock);
+                    }
+                }
+            } catch (SQLException e) {
+                // ending the session releases the lock too, and a broken session must not be reused
+                con.abort(Runnable::run);
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String load(String script) {
+        try (InputStream in = SchemaMigrations.class.getResourceAsStream(RESOURCE_DIR + script)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing migration " + RESOURCE_DIR + script);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            // the same checksum whatever line endings the checkout has
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read migration " + script, e);
+        }
+    }
+
+    private static long checksum(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static List<String> batches(String text) {
+        List<String> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (String line : text.split("\n")) {
+            if (line.trim().equalsIgnoreCase("GO")) {
+                addBatch(batches, batch);
+            } else {
+                batch.append(line).append('\n');
+            }
+        }
+        addBatch(batches, batch);
+        return batches;
+    }
+
+    private static void addBatch(List<String> batches, StringBuilder batch) {
+        // a batch of only comments has nothing to run
+        for (String line : batch.toString().split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("--")) {
+                batches.add(batch.toString());
+                break;
+            }
+        }
+        batch.setLength(0);
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.db.sqlserver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+
+// The batches in Sql that start with SET NOCOUNT ON or SET XACT_ABORT ON switch them back off as their
+// last statement, since SET options stay on the connection and the pool hands it to the next caller.
+// A batch that fails stops before that, so the caller resets them here.
+final class SessionOptions {
+
+    private SessionOptions() {
+    }
+
+    // keeps the original error; if the options cannot be reset the connection is closed instead of reused
+    static void reset(Connection con, SQLException error) {
+        try {
+            con.createStatement().execute(Sql.RESET_OPTIONS);
+        } catch (SQLException resetFailed) {
+            error.addSuppressed(resetFailed);
+            try {
+                Executor sameThread = Runnable::run;
+                con.abort(sameThread);
+            } catch (SQLException abortFailed) {
+                error.addSuppressed(abortFailed);
+            }
+        }
+    }
+}
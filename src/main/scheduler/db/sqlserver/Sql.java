@@ -0,0 +1,210 @@
+package scheduler.db.sqlserver;
+
+import java.sql.Date;
+
+// Every statement the SQL Server repositories run. Each text is fixed, so the pooled connection's
+// statement cache (keyed by SQL text) hands the same prepared statement back on every call.
+final class Sql {
+
+    private Sql() {
+    }
+
+    // Patients and Caregivers have the same columns
+    static String accountExists(String table) {
+        return "SELECT * FROM " + table + " WHERE Username = ?";
+    }
+
+    static String getAccount(String table) {
+        return "SELECT Username, Salt, Hash, Iterations, KeyLength FROM " + table + " WHERE Username = ?";
+    }
+
+    static String addAccount(String table) {
+        return "INSERT INTO " + table + " (Username, Salt, Hash, Iterations, KeyLength) VALUES (?, ?, ?, ?, ?)";
+    }
+
+    static String rehashAccount(String table) {
+        return "UPDATE " + table + " SET Hash = ?, Iterations = ?, KeyLength = ? WHERE Username = ?";
+    }
+
+    // one placeholder per username; not worth caching unless the count repeats, as it does for full import chunks
+    static String existingAccounts(String table, int count) {
+        StringBuilder selectExisting = new StringBuilder("SELECT Username FROM ")
+                .append(table).append(" WHERE Username IN (");
+        for (int i = 0; i < count; i++) {
+            selectExisting.append(i == 0 ? "?" : ", ?");
+        }
+        return selectExisting.append(")").toString();
+    }
+
+    static final String ADD_AVAILABILITY = "INSERT INTO Availabilities VALUES (? , ?)";
+    static final String ADD_AVAILABILITY_IF_ABSENT = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT * FROM Availabilities WHERE Time = ? AND Username = ?)";
+    static final String SLOT_EXISTS = "SELECT COUNT(*) FROM Availabilities WHERE Time = ? AND Username = ?";
+    static final String FIND_CAREGIVERS = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+    static final String COUNT_BY_DAY = "SELECT Time, COUNT(*) FROM Availabilities WHERE Time BETWEEN ? AND ? " +
+            "GROUP BY Time ORDER BY Time";
+    static final String AVAILABILITIES_FROM = "SELECT Time, Username FROM Availabilities WHERE Time >= ?";
+
+    static final String ADD_VACCINE = "INSERT INTO vaccines VALUES (?, ?)";
+    // the snapshot plus the ledger tail
+    static final String GET_VACCINES = "SELECT v.Name, v.Doses + COALESCE(SUM(l.Doses), 0) AS Doses " +
+            "FROM Vaccines v LEFT JOIN DoseLedger l ON l.VaccineName = v.Name GROUP BY v.Name, v.Doses";
+    static final String CHECK_FLUSH = "SELECT COUNT(*) FROM DoseFlushes WHERE FlushID = ?";
+    static final String RECORD_FLUSH = "INSERT INTO DoseFlushes (FlushID) VALUES (?)";
+    static final String PRUNE_FLUSHES = "DELETE FROM DoseFlushes WHERE FlushedAt < DATEADD(day, -1, SYSUTCDATETIME())";
+    // an insert only, so flushes never wait for each other or for compaction on the Vaccines row; the
+    // vaccine is not looked up, DoseInventory only flushes vaccines it loaded from Vaccines
+    static final String APPEND_DOSES = "INSERT INTO DoseLedger (VaccineName, Reason, Doses, FlushID) VALUES (?, ?, ?, ?)";
+    // Folds up to ? ledger entries into Vaccines.Doses and returns how many it folded. Entries of a flush
+    // that is still being committed are skipped (READPAST) and folded next time. The delete and the
+    // update commit together, so no entry is counted twice or lost. The Vaccines rows are locked first,
+    // in the same order as a booking takes them, so compaction and bookings queue instead of deadlocking.
+    static final String COMPACT_LEDGER = "SET XACT_ABORT ON; " +
+            "DECLARE @folded TABLE (VaccineName varchar(255), Doses bigint); " +
+            "DECLARE @locked int; " +
+            "BEGIN TRANSACTION; " +
+            "SELECT @locked = COUNT(*) FROM Vaccines WITH (UPDLOCK, ROWLOCK); " +
+            "DELETE TOP (?) FROM DoseLedger WITH (READPAST) OUTPUT deleted.VaccineName, deleted.Doses INTO @folded; " +
+            "UPDATE v SET Doses = v.Doses + f.Doses FROM Vaccines v " +
+            "JOIN (SELECT VaccineName, SUM(Doses) AS Doses FROM @folded GROUP BY VaccineName) f " +
+            "ON f.VaccineName = v.Name; " +
+            "COMMIT; " +
+            "SELECT COUNT(*) FROM @folded; " +
+            "SET XACT_ABORT OFF;";
+
+    // SET options outlive the batch on the pooled connection, so every batch below that sets one
+    // switches it off again at its end, and SessionOptions.reset does so when a batch fails midway
+    static final String RESET_OPTIONS = "SET NOCOUNT OFF; SET XACT_ABORT OFF;";
+
+    // The dose balance of a vaccine (the snapshot plus the ledger tail), read under an update lock on
+    // its Vaccines row that is held until the booking commits, so bookings of the vaccine from every
+    // process take their doses one after the other and the balance never goes below zero. The ledger
+    // is read in a statement of its own, after the lock is granted, and with READCOMMITTEDLOCK, so
+    // under read committed snapshot it still sees the entries committed while it waited.
+    private static final String LOCK_DOSES = "DECLARE @doses bigint = NULL; " +
+            "SELECT @doses = Doses FROM Vaccines WITH (UPDLOCK, ROWLOCK) WHERE Name = @vaccine; " +
+            "SELECT @doses = @doses + COALESCE(SUM(Doses), 0) FROM DoseLedger WITH (READCOMMITTEDLOCK) " +
+            "WHERE VaccineName = @vaccine; ";
+    // Claims a caregiver slot and books the appointment in one batch, inside one transaction, together
+    // with the dose it takes, so the dose is as durable as the appointment.
+    // The preferred caregiver's slot is tried first; if it is gone or locked, the first free slot is used.
+    // UPDLOCK + READPAST lets concurrent reservations for the same date skip slots that another
+    // transaction is already claiming instead of queueing behind it.
+    // Status: 0 = booked, 1 = no caregiver available, 2 = no dose left
+    static final String RESERVE = "SET NOCOUNT ON; " +
+            "DECLARE @slot TABLE (Username varchar(255)); " +
+            "DECLARE @status int = 0, @appointmentId int = NULL, @caregiver varchar(255) = NULL; " +
+            "DECLARE @time date = ?, @preferred varchar(255) = ?, @patient varchar(255) = ?, @vaccine varchar(255) = ?; " +
+            LOCK_DOSES +
+            "IF COALESCE(@doses, 0) < 1 " +
+            "    SET @status = 2; " +
+            "ELSE BEGIN " +
+            "    DELETE FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) OUTPUT deleted.Username INTO @slot " +
+            "    WHERE Time = @time AND Username = @preferred; " +
+            "    IF NOT EXISTS (SELECT * FROM @slot) " +
+            "        DELETE FROM Availabilities OUTPUT deleted.Username INTO @slot " +
+            "        WHERE Time = @time AND Username = (" +
+            "            SELECT TOP (1) Username FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "            WHERE Time = @time ORDER BY Username); " +
+            "    SELECT @caregiver = Username FROM @slot; " +
+            "    IF @caregiver IS NULL " +
+            "        SET @status = 1; " +
+            "    ELSE BEGIN " +
+            "        INSERT INTO Reservations VALUES (@patient, @caregiver, @vaccine, @time); " +
+            "        SET @appointmentId = SCOPE_IDENTITY(); " +
+            "        INSERT INTO DoseLedger (VaccineName, Reason, Doses, FlushID) " +
+            "        SELECT VaccineName, 'RESERVATION', -1, CONVERT(varchar(36), NEWID()) " +
+            "        FROM Reservations WHERE AppointmentID = @appointmentId; " +
+            "    END; " +
+            "END; " +
+            "SELECT @status AS Status, @appointmentId AS AppointmentID, @caregiver AS CaregiverUsername; " +
+            "SET NOCOUNT OFF;";
+    // Books a whole batch of patients for one date and vaccine with set-based statements. The patients
+    // come as one JSON array of [username, preferred caregiver or null], so the text is the same whatever
+    // the batch size. Only as many patients as there are doses left are booked. The preferred slots that
+    // no other transaction holds are claimed first (READPAST); the patients left over get that many of
+    // the other free slots, the i-th of them the i-th slot. MERGE is used for the insert because its
+    // OUTPUT can return the patient's position next to the new id. XACT_ABORT makes any error roll
+    // back the whole batch, including the ledger entry written after the bookings.
+    // Returns one row per patient in order: Seq, AppointmentID, CaregiverUsername, Status (as in RESERVE).
+    static final String RESERVE_ALL = "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+            "DECLARE @time date = ?, @vaccine varchar(255) = ?; " +
+            "DECLARE @patients TABLE (Seq int PRIMARY KEY, Username varchar(255), Preferred varchar(255)); " +
+            "INSERT INTO @patients (Seq, Username, Preferred) " +
+            "SELECT CAST([key] AS int) + 1, JSON_VALUE([value], '$[0]'), JSON_VALUE([value], '$[1]') FROM OPENJSON(?); " +
+            "DECLARE @count int = ?; " +
+            LOCK_DOSES +
+            "DECLARE @bookable int = CASE WHEN COALESCE(@doses, 0) <= 0 THEN 0 " +
+            "    WHEN @doses < @count THEN @doses ELSE @count END; " +
+            "DECLARE @claimed TABLE (Username varchar(255)); " +
+            "DELETE FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) OUTPUT deleted.Username INTO @claimed " +
+            "WHERE Time = @time AND Username IN (SELECT Preferred FROM @patients WHERE Seq <= @bookable); " +
+            "DECLARE @assigned TABLE (Seq int PRIMARY KEY, Caregiver varchar(255)); " +
+            "INSERT INTO @assigned (Seq, Caregiver) SELECT Seq, Username FROM (" +
+            "    SELECT p.Seq, c.Username, ROW_NUMBER() OVER (PARTITION BY c.Username ORDER BY p.Seq) AS n " +
+            "    FROM @patients p JOIN @claimed c ON c.Username = p.Preferred WHERE p.Seq <= @bookable) x " +
+            "WHERE n = 1; " +
+            "DECLARE @rest int = @bookable - (SELECT COUNT(*) FROM @assigned); " +
+            "DECLARE @slots TABLE (Seq int IDENTITY PRIMARY KEY, Username varchar(255)); " +
+            "DELETE TOP (@rest) FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "OUTPUT deleted.Username INTO @slots (Username) WHERE Time = @time; " +
+            "INSERT INTO @assigned (Seq, Caregiver) SELECT w.Seq, s.Username FROM (" +
+            "    SELECT Seq, ROW_NUMBER() OVER (ORDER BY Seq) AS n FROM @patients " +
+            "    WHERE Seq <= @bookable AND Seq NOT IN (SELECT Seq FROM @assigned)) w " +
+            "JOIN @slots s ON s.Seq = w.n; " +
+            "DECLARE @booked TABLE (Seq int PRIMARY KEY, AppointmentID int, CaregiverUsername varchar(255)); " +
+            "MERGE INTO Reservations USING (" +
+            "    SELECT p.Seq, p.Username AS Patient, a.Caregiver " +
+            "    FROM @patients p JOIN @assigned a ON a.Seq = p.Seq) AS b ON 1 = 0 " +
+            "WHEN NOT MATCHED THEN INSERT (PatientUsername, CaregiverUsername, VaccineName, AppointmentTime) " +
+            "    VALUES (b.Patient, b.Caregiver, @vaccine, @time) " +
+            "OUTPUT b.Seq, inserted.AppointmentID, inserted.CaregiverUsername INTO @booked; " +
+            "INSERT INTO DoseLedger (VaccineName, Reason, Doses, FlushID) " +
+            "SELECT @vaccine, 'RESERVATION', -COUNT(*), CONVERT(varchar(36), NEWID()) " +
+            "FROM @booked HAVING COUNT(*) > 0; " +
+            "SELECT p.Seq, b.AppointmentID, b.CaregiverUsername, " +
+            "    CASE WHEN b.Seq IS NOT NULL THEN 0 WHEN p.Seq > @bookable THEN 2 ELSE 1 END AS Status " +
+            "FROM @patients p LEFT JOIN @booked b ON b.Seq = p.Seq ORDER BY p.Seq; " +
+            "SET NOCOUNT OFF; SET XACT_ABORT OFF;";
+    static final String COUNT_BY_CAREGIVER = "SELECT CaregiverUsername, COUNT(*) FROM Reservations " +
+            "WHERE AppointmentTime >= ? GROUP BY CaregiverUsername";
+    // Cancels in one round trip: the ownership check is part of the DELETE, whose OUTPUT is returned to
+    // the caller. The transaction is opened and committed in the batch itself.
+    private static final String CANCEL_WHERE = "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+            "DECLARE @deleted TABLE (AppointmentID int, PatientUsername varchar(255), " +
+            "    CaregiverUsername varchar(255), VaccineName varchar(255), AppointmentTime date); " +
+            "BEGIN TRANSACTION; " +
+            "DELETE FROM Reservations OUTPUT deleted.AppointmentID, deleted.PatientUsername, " +
+            "    deleted.CaregiverUsername, deleted.VaccineName, deleted.AppointmentTime INTO @deleted ";
+    // the doses go back; the cancelled appointments are the result
+    private static final String CANCEL_END = "INSERT INTO DoseLedger (VaccineName, Reason, Doses, FlushID) " +
+            "SELECT VaccineName, 'CANCELLATION', COUNT(*), CONVERT(varchar(36), NEWID()) FROM @deleted " +
+            "GROUP BY VaccineName; " +
+            "COMMIT; " +
+            "SELECT AppointmentID, PatientUsername, CaregiverUsername, VaccineName, AppointmentTime FROM @deleted " +
+            "ORDER BY AppointmentID; " +
+            "SET NOCOUNT OFF; SET XACT_ABORT OFF;";
+    // a cancelled appointment gives the caregiver the slot back; one who uploaded the date again after
+    // the booking already has it, so it is only restored where it is missing
+    private static final String CANCEL_RESTORE = "; " +
+            "INSERT INTO Availabilities (Time, Username) SELECT DISTINCT d.AppointmentTime, d.CaregiverUsername " +
+            "FROM @deleted d WHERE NOT EXISTS (SELECT * FROM Availabilities a " +
+            "    WHERE a.Time = d.AppointmentTime AND a.Username = d.CaregiverUsername); " +
+            CANCEL_END;
+    static final String CANCEL_APPOINTMENT = CANCEL_WHERE +
+            "WHERE AppointmentID = ? AND (PatientUsername = ? OR CaregiverUsername = ?)" + CANCEL_RESTORE;
+    // the caregiver calls off the whole day: their free slots on it go too, and the booked ones are not given back
+    static final String CANCEL_DAY = "DECLARE @time date = ?, @caregiver varchar(255) = ?; " + CANCEL_WHERE +
+            "WHERE AppointmentTime = @time AND CaregiverUsername = @caregiver; " +
+            "DELETE FROM Availabilities WHERE Time = @time AND Username = @caregiver; " + CANCEL_END;
+    // Keyset pages: a seek on the (user, AppointmentID) index that stops after TOP rows. Missing date
+    // bounds are passed as the widest dates so there is one statement text, and one plan, per query.
+    static final String PATIENT_APPOINTMENTS = "SELECT TOP (?) AppointmentID, PatientUsername, CaregiverUsername, " +
+            "VaccineName, AppointmentTime FROM Reservations WHERE PatientUsername = ? AND AppointmentID > ? " +
+            "AND AppointmentTime BETWEEN ? AND ? ORDER BY AppointmentID";
+    static final String CAREGIVER_APPOINTMENTS = "SELECT TOP (?) AppointmentID, PatientUsername, CaregiverUsername, " +
+            "VaccineName, AppointmentTime FROM Reservations WHERE CaregiverUsername = ? AND AppointmentID > ? " +
+            "AND AppointmentTime BETWEEN ? AND ? ORDER BY AppointmentID";
+    static final Date MIN_DATE = Date.valueOf("0001-01-01");
+    static final Date MAX_DATE = Date.valueOf("9999-12-31");
+}
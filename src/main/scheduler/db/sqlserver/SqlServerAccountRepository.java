@@ -0,0 +1,157 @@
+package scheduler.db.sqlserver;
+
+import scheduler.db.AccountRepository;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Credentials;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class SqlServerAccountRepository implements AccountRepository {
+
+    private final String table;
+
+    // table is Patients or Caregivers, which have the same columns
+    public SqlServerAccountRepository(String table) {
+        this.table = table;
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectUsername = Sql.accountExists(table);
+        try {
+            PreparedStatement statement = con.prepareStatement(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Credentials find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getAccount = Sql.getAccount(table);
+        try {
+            PreparedStatement statement = con.prepareStatement(getAccount);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            // getInt returns 0 for the NULLs of accounts stored before the parameters were recorded
+            return new Credentials(resultSet.getString("Username"), resultSet.getBytes("Salt"),
+                    resultSet.getBytes("Hash"), resultSet.getInt("Iterations"), resultSet.getInt("KeyLength"));
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void save(Credentials account) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAccount = Sql.addAccount(table);
+        try {
+            PreparedStatement statement = con.prepareStatement(addAccount);
+            bind(statement, account);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void saveAll(List<Credentials> accounts) throws SQLException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAccount = Sql.addAccount(table);
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(addAccount);
+            for (Credentials account : accounts) {
+                bind(statement, account);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Credentials account) throws SQLException {
+        statement.setString(1, account.getUsername());
+        statement.setBytes(2, account.getSalt());
+        statement.setBytes(3, account.getHash());
+        statement.setInt(4, account.getIterations());
+        statement.setInt(5, account.getKeyLength());
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // callers keep the list below SQL Server's limit of 2100 parameters
+        String selectExisting = Sql.existingAccounts(table, usernames.size());
+        try {
+            PreparedStatement statement = con.prepareStatement(selectExisting);
+            int index = 1;
+            for (String username : usernames) {
+                statement.setString(index++, username);
+            }
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getString(1).toLowerCase(Locale.ROOT));
+            }
+            return existing;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateHash(String username, byte[] hash, int iterations, int keyLength) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String rehashAccount = Sql.rehashAccount(table);
+        try {
+            PreparedStatement statement = con.prepareStatement(rehashAccount);
+            statement.setBytes(1, hash);
+            statement.setInt(2, iterations);
+            statement.setInt(3, keyLength);
+            statement.setString(4, username);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package scheduler.db.sqlserver;
+
+import scheduler.db.AvailabilityRepository;
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SqlServerAvailabilityRepository implements AvailabilityRepository {
+
+    @Override
+    public void add(Date d, String caregiverUsername) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = Sql.ADD_AVAILABILITY;
+        try {
+            PreparedStatement statement = con.prepareStatement(addAvailability);
+            statement.setDate(1, d);
+            statement.setString(2, caregiverUsername);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean[] addAll(String caregiverUsername, List<Date> dates) throws SQLException {
+        boolean[] added = new boolean[dates.size()];
+        if (dates.isEmpty()) {
+            return added;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one JDBC batch in one transaction; dates that already exist are skipped instead of failing the batch
+        String addAvailability = Sql.ADD_AVAILABILITY_IF_ABSENT;
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(addAvailability);
+            for (Date d : dates) {
+                statement.setDate(1, d);
+                statement.setString(2, caregiverUsername);
+                statement.setDate(3, d);
+                statement.setString(4, caregiverUsername);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            con.commit();
+            // only a reported row is an insert; SUCCESS_NO_INFO (NOCOUNT left on) says nothing either way,
+            // and taking it as one would count existing dates as new and wake the waitlist for them
+            for (int i = 0; i < counts.length; i++) {
+                added[i] = counts[i] > 0;
+            }
+            return added;
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String schedule = Sql.FIND_CAREGIVERS;
+        try {
+            PreparedStatement statement = con.prepareStatement(schedule);
+            statement.setDate(1, d);
+            ResultSet resultSet = statement.executeQuery();
+            List<String> caregivers = new ArrayList<>();
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString(1));
+            }
+            return caregivers;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean exists(Date d, String caregiverUsername) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // no READPAST: a slot locked by a booking that is rolled back is still there
+        String slotExists = Sql.SLOT_EXISTS;
+        try {
+            PreparedStatement statement = con.prepareStatement(slotExists);
+            statement.setDate(1, d);
+            statement.setString(2, caregiverUsername);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1) > 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<Date, Integer> countByDay(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one grouped query for the whole range, answered from the (Time, Username) primary key
+        String countAvailabilities = Sql.COUNT_BY_DAY;
+        try {
+            PreparedStatement statement = con.prepareStatement(countAvailabilities);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            ResultSet resultSet = statement.executeQuery();
+            Map<Date, Integer> counts = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                counts.put(resultSet.getDate(1), resultSet.getInt(2));
+            }
+            return counts;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachFrom(Date from, SlotConsumer consumer) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String loadAvailabilities = Sql.AVAILABILITIES_FROM;
+        try {
+            PreparedStatement statement = con.prepareStatement(loadAvailabilities);
+            statement.setDate(1, from);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate(1), resultSet.getString(2));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
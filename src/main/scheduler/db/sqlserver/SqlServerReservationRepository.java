@@ -0,0 +1,218 @@
+package scheduler.db.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ReservationRepository;
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+import scheduler.util.Json;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SqlServerReservationRepository implements ReservationRepository {
+
+    // rows per round trip when paging through appointments
+    private static final int FETCH_SIZE = 128;
+
+    @Override
+    public Reservation reserve(String patientUsername, String vaccineName, Date d, String preferredCaregiver)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one batch that claims a slot and books it, see Sql.RESERVE
+        String reserveAppointment = Sql.RESERVE;
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(reserveAppointment);
+            statement.setDate(1, d);
+            statement.setString(2, preferredCaregiver);
+            statement.setString(3, patientUsername);
+            statement.setString(4, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            int status = resultSet.getInt("Status");
+            if (status != 0) {
+                con.rollback();
+                return Reservation.failed(toStatus(status), vaccineName, d);
+            }
+            con.commit();
+            return Reservation.booked(resultSet.getInt("AppointmentID"), resultSet.getString("CaregiverUsername"),
+                    vaccineName, d);
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            SessionOptions.reset(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Reservation> reserveAll(List<String> patientUsernames, List<String> preferredCaregivers,
+                                        String vaccineName, Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        StringBuilder patients = new StringBuilder("[");
+        for (int i = 0; i < patientUsernames.size(); i++) {
+            String preferred = preferredCaregivers.get(i);
+            patients.append(i == 0 ? "[" : ",[").append(Json.quote(patientUsernames.get(i))).append(",")
+                    .append(preferred == null ? "null" : Json.quote(preferred)).append("]");
+        }
+        String reserveAppointments = Sql.RESERVE_ALL;
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(reserveAppointments);
+            statement.setDate(1, d);
+            statement.setString(2, vaccineName);
+            statement.setString(3, patients.append("]").toString());
+            statement.setInt(4, patientUsernames.size());
+            ResultSet resultSet = statement.executeQuery();
+            List<Reservation> result = new ArrayList<>(patientUsernames.size());
+            while (resultSet.next()) {
+                int status = resultSet.getInt("Status");
+                result.add(status == 0
+                        ? Reservation.booked(resultSet.getInt("AppointmentID"),
+                                resultSet.getString("CaregiverUsername"), vaccineName, d)
+                        : Reservation.failed(toStatus(status), vaccineName, d));
+            }
+            // an error raised after the result rows only shows up in the results that follow
+            while (statement.getMoreResults() || statement.getUpdateCount() != -1) {
+                // nothing to read
+            }
+            con.commit();
+            return result;
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            SessionOptions.reset(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the Status column of Sql.RESERVE and Sql.RESERVE_ALL
+    private static Reservation.Status toStatus(int status) {
+        return status == 2 ? Reservation.Status.NO_DOSES : Reservation.Status.NO_CAREGIVER;
+    }
+
+    @Override
+    public Appointment cancel(int appointmentId, String patientUsername, String caregiverUsername)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one batch that deletes, gives the slot back and commits, see Sql.CANCEL_APPOINTMENT
+        String cancelAppointment = Sql.CANCEL_APPOINTMENT;
+        try {
+            PreparedStatement statement = con.prepareStatement(cancelAppointment);
+            statement.setInt(1, appointmentId);
+            statement.setString(2, patientUsername);
+            statement.setString(3, caregiverUsername);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? toAppointment(resultSet) : null;
+        } catch (SQLException e) {
+            SessionOptions.reset(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelDay(Date d, String caregiverUsername) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String cancelAppointments = Sql.CANCEL_DAY;
+        try {
+            PreparedStatement statement = con.prepareStatement(cancelAppointments);
+            statement.setDate(1, d);
+            statement.setString(2, caregiverUsername);
+            ResultSet resultSet = statement.executeQuery();
+            List<Appointment> cancelled = new ArrayList<>();
+            while (resultSet.next()) {
+                cancelled.add(toAppointment(resultSet));
+            }
+            return cancelled;
+        } catch (SQLException e) {
+            SessionOptions.reset(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver(Date from) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String countAppointments = Sql.COUNT_BY_CAREGIVER;
+        try {
+            PreparedStatement statement = con.prepareStatement(countAppointments);
+            statement.setDate(1, from);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Integer> counts = new HashMap<>();
+            while (resultSet.next()) {
+                counts.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+            return counts;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int forEachByPatient(String patientUsername, int afterId, Date from, Date to, int limit,
+                                AppointmentConsumer consumer) throws SQLException {
+        return forEachBy(Sql.PATIENT_APPOINTMENTS, patientUsername, afterId, from, to, limit, consumer);
+    }
+
+    @Override
+    public int forEachByCaregiver(String caregiverUsername, int afterId, Date from, Date to, int limit,
+                                  AppointmentConsumer consumer) throws SQLException {
+        return forEachBy(Sql.CAREGIVER_APPOINTMENTS, caregiverUsername, afterId, from, to, limit, consumer);
+    }
+
+    private int forEachBy(String appointments, String username, int afterId, Date from, Date to, int limit,
+                          AppointmentConsumer consumer) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            PreparedStatement statement = con.prepareStatement(appointments);
+            statement.setInt(1, limit);
+            statement.setString(2, username);
+            statement.setInt(3, afterId);
+            statement.setDate(4, from != null ? from : Sql.MIN_DATE);
+            statement.setDate(5, to != null ? to : Sql.MAX_DATE);
+            // read the page in a few round trips instead of buffering it all in the driver
+            statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+            ResultSet resultSet = statement.executeQuery();
+            int count = 0;
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3),
+                        resultSet.getString(4), resultSet.getDate(5));
+                count++;
+            }
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static Appointment toAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment(resultSet.getInt("AppointmentID"), resultSet.getString("PatientUsername"),
+                resultSet.getString("CaregiverUsername"), resultSet.getString("VaccineName"),
+                resultSet.getDate("AppointmentTime"));
+    }
+}
@@ -0,0 +1,117 @@
+package scheduler.db.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.DoseMovement;
+import scheduler.db.VaccineRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SqlServerVaccineRepository implements VaccineRepository {
+
+    @Override
+    public void save(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addDoses = Sql.ADD_VACCINE;
+        try {
+            PreparedStatement statement = con.prepareStatement(addDoses);
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> findAll() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccines = Sql.GET_VACCINES;
+        try {
+            PreparedStatement statement = con.prepareStatement(getVaccines);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Integer> vaccines = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                vaccines.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+            return vaccines;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean append(String flushId, List<DoseMovement> movements) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String checkFlush = Sql.CHECK_FLUSH;
+        String recordFlush = Sql.RECORD_FLUSH;
+        String pruneFlushes = Sql.PRUNE_FLUSHES;
+        String appendDoses = Sql.APPEND_DOSES;
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement checkStatement = con.prepareStatement(checkFlush);
+            checkStatement.setString(1, flushId);
+            ResultSet resultSet = checkStatement.executeQuery();
+            resultSet.next();
+            if (resultSet.getInt(1) > 0) {
+                // committed before, the acknowledgement was lost
+                con.rollback();
+                return false;
+            }
+
+            PreparedStatement recordStatement = con.prepareStatement(recordFlush);
+            recordStatement.setString(1, flushId);
+            recordStatement.executeUpdate();
+            con.prepareStatement(pruneFlushes).executeUpdate();
+
+            PreparedStatement appendStatement = con.prepareStatement(appendDoses);
+            for (DoseMovement movement : movements) {
+                appendStatement.setString(1, movement.getVaccineName());
+                appendStatement.setString(2, movement.getReason().name());
+                appendStatement.setLong(3, movement.getDoses());
+                appendStatement.setString(4, flushId);
+                appendStatement.addBatch();
+            }
+            appendStatement.executeBatch();
+            con.commit();
+            return true;
+        } catch (SQLException e) {
+            Transactions.rollback(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int compact(int limit) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one batch that runs its own transaction, see Sql.COMPACT_LEDGER
+        String compactLedger = Sql.COMPACT_LEDGER;
+        try {
+            PreparedStatement statement = con.prepareStatement(compactLedger);
+            statement.setInt(1, limit);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException e) {
+            SessionOptions.reset(con, e);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package scheduler.db.sqlserver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// The catch blocks of the transactions here roll back and rethrow. A rollback that fails as well (often
+// because the connection is the thing that broke) must not hide the error that caused it.
+final class Transactions {
+
+    private Transactions() {
+    }
+
+    // keeps the original error and adds the rollback's own failure to it
+    static void rollback(Connection con, SQLException error) {
+        try {
+            con.rollback();
+        } catch (SQLException rollbackError) {
+            error.addSuppressed(rollbackError);
+        }
+    }
+}
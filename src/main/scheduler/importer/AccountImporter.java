@@ -0,0 +1,212 @@
+package scheduler.importer;
+
+import scheduler.db.AccountRepository;
+import scheduler.db.Credentials;
+import scheduler.db.Repositories;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Streams a CSV of "username,password" rows into Patients or Caregivers.
+ * Rows are processed in chunks: duplicates are found with one query per chunk, passwords are
+ * hashed in parallel on all cores, and the chunk is inserted as one batch in one transaction.
+ */
+public class AccountImporter {
+
+    // stays well below SQL Server's limit of 2100 parameters for the duplicate check
+    private static final int CHUNK_SIZE = 1000;
+
+    public enum AccountType {
+        PATIENT,
+        CAREGIVER;
+
+        private AccountRepository repository() {
+            return this == PATIENT ? Repositories.get().patients() : Repositories.get().caregivers();
+        }
+    }
+
+    private final AccountType type;
+    private final ForkJoinPool hashingPool;
+    // usernames seen earlier in the same file; Username compares case-insensitively in the database
+    private final Set<String> seen = new HashSet<>();
+    private final Result result = new Result();
+
+    public AccountImporter(AccountType type) {
+        this.type = type;
+        this.hashingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Result importFile(Path csv) throws IOException, SQLException {
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || (lineNumber == 1 && line.trim().equalsIgnoreCase("username,password"))) {
+                    continue;
+                }
+                Row row = parse(lineNumber, line);
+                if (row != null) {
+                    chunk.add(row);
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(chunk);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            importChunk(chunk);
+        } finally {
+            hashingPool.shutdown();
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    private Row parse(int lineNumber, String line) {
+        // the password may itself contain commas
+        String[] fields = line.split(",", 2);
+        if (fields.length != 2) {
+            result.fail(lineNumber, "?", "expected username,password");
+            return null;
+        }
+        String username = fields[0].trim();
+        String password = fields[1].trim();
+        if (username.isEmpty() || password.isEmpty()) {
+            result.fail(lineNumber, username, "empty username or password");
+            return null;
+        }
+        if (username.length() > 255) {
+            result.fail(lineNumber, username, "username longer than 255 characters");
+            return null;
+        }
+        if (!seen.add(username.toLowerCase(Locale.ROOT))) {
+            result.fail(lineNumber, username, "duplicate username in file");
+            return null;
+        }
+        return new Row(lineNumber, username, password);
+    }
+
+    private void importChunk(List<Row> chunk) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Row> rows = removeExisting(chunk);
+        hash(rows);
+        insert(rows);
+    }
+
+    private List<Row> removeExisting(List<Row> chunk) throws SQLException {
+        List<String> usernames = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            usernames.add(row.username);
+        }
+        Set<String> existing = type.repository().findExisting(usernames);
+
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (existing.contains(row.username.toLowerCase(Locale.ROOT))) {
+                result.fail(row.lineNumber, row.username, "user name taken");
+            } else {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void hash(List<Row> rows) {
+        try {
+            hashingPool.submit(() -> rows.parallelStream().forEach(row -> {
+                row.salt = Util.generateSalt();
+                row.hash = Util.generateHash(row.password, row.salt);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void insert(List<Row> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        AccountRepository repository = type.repository();
+        List<Credentials> accounts = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            accounts.add(new Credentials(row.username, row.salt, row.hash, Util.getHashStrength(), Util.getKeyLength()));
+        }
+        try {
+            repository.saveAll(accounts);
+            result.imported += rows.size();
+            return;
+        } catch (SQLException e) {
+            // e.g. an account was created concurrently; find the bad rows one by one below
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                repository.save(accounts.get(i));
+                result.imported++;
+            } catch (SQLException e) {
+                result.fail(rows.get(i).lineNumber, rows.get(i).username, "could not be saved");
+            }
+        }
+    }
+
+    private static class Row {
+        private final int lineNumber;
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        Row(int lineNumber, String username, String password) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    public static class Result {
+        private int imported = 0;
+        private final List<String> failures = new ArrayList<>();
+        private long elapsedNanos = 0;
+
+        private void fail(int lineNumber, String username, String reason) {
+            failures.add("line " + lineNumber + " (" + username + "): " + reason);
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public double getSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        public double getRowsPerSecond() {
+            double seconds = getSeconds();
+            return seconds == 0 ? 0 : (imported + failures.size()) / seconds;
+        }
+    }
+}
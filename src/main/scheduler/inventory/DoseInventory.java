@@ -0,0 +1,379 @@
+package scheduler.inventory;
+
+import scheduler.db.DoseMovement;
+import scheduler.db.Repositories;
+import scheduler.db.TransactionExecutor;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process owner of the vaccine dose counts. Reservations, cancellations and add_doses change
+ * the counters in memory. A booking or cancellation writes its own dose movement to the ledger in
+ * the transaction that books or cancels, so a committed reservation can never lose its dose. The
+ * shipments of add_doses are only in memory at first: a background flusher appends them, one entry
+ * per vaccine, to the dose ledger in one batch every DoseFlushMillis (the durability window).
+ * The ledger is insert-only, so flushes never contend on the Vaccines rows. Every
+ * DoseCompactMillis the ledger is folded into Vaccines.Doses, the balance snapshot, at most
+ * DoseCompactBatch entries at a time.
+ *
+ * The counters here only turn reservations away early. Other processes change the doses too, so the
+ * booking itself checks the balance in the database under a lock on the vaccine and fails with
+ * NO_DOSES when it is gone; shipments of this process are flushed first (flushShipments) so the
+ * database knows about them.
+ *
+ * Each batch gets an id and is written to a local journal (DoseJournal) before it is sent. The id
+ * is recorded in DoseFlushes in the same transaction as the ledger entries, so a batch left in the
+ * journal by a crash is appended exactly once on the next start. Shipments that were still in memory
+ * when the process died (at most one durability window) are lost.
+ */
+public class DoseInventory {
+
+    private static DoseInventory instance = null;
+
+    private static final String JOURNAL_VERSION = "v2";
+
+    private final ConcurrentHashMap<String, Stock> stocks = new ConcurrentHashMap<>();
+    private final long flushMillis;
+    private final long compactMillis;
+    private final int compactBatch;
+    private final Path journalPath;
+    private final ScheduledExecutorService flusher;
+    private volatile boolean loaded = false;
+
+    // the batch that was journaled but is not yet known to be committed
+    private volatile FlushBatch inFlight = null;
+
+    private DoseInventory() {
+        this.flushMillis = Math.max(10, Config.getLong("DoseFlushMillis", 1_000));
+        this.compactMillis = Math.max(1_000, Config.getLong("DoseCompactMillis", 60_000));
+        this.compactBatch = Math.max(1, Config.getInt("DoseCompactBatch", 10_000));
+        this.journalPath = Paths.get(Config.getString("DoseJournal", "dose-journal.log"));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static synchronized DoseInventory getInstance() {
+        if (instance == null) {
+            instance = new DoseInventory();
+        }
+        return instance;
+    }
+
+    // reconciles any batch left behind by a crash, then reads the current counts
+    public synchronized void load() throws SQLException {
+        if (loaded) {
+            return;
+        }
+        synchronized (this.flusher) {
+            FlushBatch leftover = readJournal();
+            if (leftover != null) {
+                apply(leftover);
+                clearJournal();
+            }
+        }
+
+        for (Map.Entry<String, Integer> vaccine : Repositories.get().vaccines().findAll().entrySet()) {
+            stocks.put(vaccine.getKey(), new Stock(vaccine.getKey(), vaccine.getValue()));
+        }
+
+        loaded = true;
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::compactQuietly, compactMillis, compactMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "dose-flusher-shutdown"));
+    }
+
+    // returns null if there is no such vaccine
+    public Integer getAvailableDoses(String vaccineName) throws SQLException {
+        Stock stock = stock(vaccineName);
+        return stock == null ? null : (int) stock.available.sum();
+    }
+
+    // vaccine name -> available doses, ordered by name
+    public Map<String, Integer> getAllDoses() throws SQLException {
+        ensureLoaded();
+        Map<String, Integer> doses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Stock stock : stocks.values()) {
+            doses.put(stock.name, (int) stock.available.sum());
+        }
+        return doses;
+    }
+
+    // called after a new vaccine row has been inserted with its initial doses
+    public void register(String vaccineName, int doses) throws SQLException {
+        ensureLoaded();
+        stocks.putIfAbsent(vaccineName, new Stock(vaccineName, doses));
+    }
+
+    // a shipment, from add_doses
+    public int add(String vaccineName, int num) throws SQLException {
+        return put(vaccineName, num, DoseMovement.Reason.SHIPMENT);
+    }
+
+    // doses of cancelled appointments; the cancellation already wrote them to the ledger
+    public int returned(String vaccineName, int num) throws SQLException {
+        return put(vaccineName, num, null);
+    }
+
+    // reason is the movement still to be flushed, null if it is already in the ledger
+    private int put(String vaccineName, int num, DoseMovement.Reason reason) throws SQLException {
+        Stock stock = stock(vaccineName);
+        if (stock == null) {
+            throw new IllegalArgumentException("Unknown vaccine: " + vaccineName);
+        }
+        stock.available.add(num);
+        if (reason != null) {
+            stock.pending(reason).addAndGet(num);
+        }
+        return (int) stock.available.sum();
+    }
+
+    // takes one dose for a reservation; false if there is none left. Nothing is flushed for it:
+    // the booking writes the dose to the ledger when it commits
+    public boolean tryTake(String vaccineName) throws SQLException {
+        Stock stock = stock(vaccineName);
+        return stock != null && stock.available.tryDecrement();
+    }
+
+    // doses taken out of stock by hand, flushed as a negative shipment
+    public boolean tryTake(String vaccineName, int num) throws SQLException {
+        Stock stock = stock(vaccineName);
+        if (stock == null || !stock.available.tryDecrement(num)) {
+            return false;
+        }
+        stock.pending(DoseMovement.Reason.SHIPMENT).addAndGet(-num);
+        return true;
+    }
+
+    // returns a dose taken by a reservation that did not go through
+    public void giveBack(String vaccineName) throws SQLException {
+        put(vaccineName, 1, null);
+    }
+
+    // makes this process's shipments of the vaccine visible to the dose check of a booking
+    public void flushShipments(String vaccineName) throws SQLException {
+        Stock stock = stock(vaccineName);
+        if (inFlight == null && (stock == null || stock.pending(DoseMovement.Reason.SHIPMENT).get() == 0)) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new SQLException("Could not journal the dose flush", e);
+        }
+    }
+
+    private Stock stock(String vaccineName) throws SQLException {
+        ensureLoaded();
+        Stock stock = stocks.get(vaccineName);
+        if (stock == null) {
+            // Vaccines.Name compares case-insensitively in the database
+            for (Stock candidate : stocks.values()) {
+                if (candidate.name.equalsIgnoreCase(vaccineName)) {
+                    return candidate;
+                }
+            }
+        }
+        return stock;
+    }
+
+    private void ensureLoaded() throws SQLException {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | IOException e) {
+            System.err.println("Could not flush vaccine doses, will retry: " + e.getMessage());
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (SQLException e) {
+            System.err.println("Could not compact the dose ledger, will retry: " + e.getMessage());
+        }
+    }
+
+    // folds the ledger into the snapshot, a batch at a time so no transaction holds the locks for long
+    public void compact() throws SQLException {
+        int folded;
+        do {
+            folded = TransactionExecutor.getInstance().run("compact_doses",
+                    () -> Repositories.get().vaccines().compact(compactBatch));
+            Metrics.get().increment("doseLedger.compactions");
+        } while (folded == compactBatch);
+    }
+
+    public void flush() throws SQLException, IOException {
+        synchronized (this.flusher) {
+            if (inFlight == null) {
+                List<DoseMovement> movements = new ArrayList<>();
+                for (Stock stock : stocks.values()) {
+                    for (DoseMovement.Reason reason : DoseMovement.Reason.values()) {
+                        // one atomic swap, so a change made meanwhile goes to the next flush instead of being lost
+                        long doses = stock.pending(reason).getAndSet(0);
+                        if (doses != 0) {
+                            movements.add(new DoseMovement(stock.name, reason, doses));
+                        }
+                    }
+                }
+                if (movements.isEmpty()) {
+                    return;
+                }
+                FlushBatch batch = new FlushBatch(UUID.randomUUID().toString(), movements);
+                try {
+                    writeJournal(batch);
+                } catch (IOException e) {
+                    // not journaled, so not in flight either: the movements go back to be flushed next time
+                    for (DoseMovement movement : movements) {
+                        Stock stock = stocks.get(movement.getVaccineName());
+                        stock.pending(movement.getReason()).addAndGet(movement.getDoses());
+                    }
+                    throw e;
+                }
+                inFlight = batch;
+            }
+            // a failed batch is retried as-is, so it can never be applied twice
+            apply(inFlight);
+            inFlight = null;
+            clearJournal();
+        }
+    }
+
+    private void apply(FlushBatch batch) throws SQLException {
+        // false means it was committed before and the acknowledgement was lost, which is fine too
+        TransactionExecutor.getInstance().run("append_doses",
+                () -> Repositories.get().vaccines().append(batch.id, batch.movements));
+    }
+
+    // journal format: one line, "v2 <flush id> <reason>:<doses>:<name> <reason>:<doses>:<name> ...";
+    // the name goes last because it may contain ':' itself (vaccine names never contain spaces)
+    private void writeJournal(FlushBatch batch) throws IOException {
+        StringBuilder line = new StringBuilder(JOURNAL_VERSION).append(' ').append(batch.id);
+        for (DoseMovement movement : batch.movements) {
+            line.append(' ').append(movement.getReason().name()).append(':').append(movement.getDoses())
+                    .append(':').append(movement.getVaccineName());
+        }
+        line.append('\n');
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+    }
+
+    private FlushBatch readJournal() {
+        try {
+            if (!Files.exists(journalPath)) {
+                return null;
+            }
+            String line = new String(Files.readAllBytes(journalPath), StandardCharsets.UTF_8).trim();
+            if (line.isEmpty()) {
+                return null;
+            }
+            String[] parts = line.split(" ");
+            if (parts[0].equals(JOURNAL_VERSION)) {
+                List<DoseMovement> movements = new ArrayList<>();
+                for (int i = 2; i < parts.length; i++) {
+                    int reasonEnd = parts[i].indexOf(':');
+                    int dosesEnd = parts[i].indexOf(':', reasonEnd + 1);
+                    movements.add(new DoseMovement(parts[i].substring(dosesEnd + 1),
+                            DoseMovement.Reason.valueOf(parts[i].substring(0, reasonEnd)),
+                            Long.parseLong(parts[i].substring(reasonEnd + 1, dosesEnd))));
+                }
+                return new FlushBatch(parts[1], movements);
+            }
+            return readOldJournal(parts);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable dose journal " + journalPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Journals of earlier versions: "<flush id> <name>:<reason>:<doses> ...", and before the ledger
+    // "<flush id> <name>:<doses> ...", whose net change counts as a shipment. The name may contain ':',
+    // so only a last segment that is a reason is taken as one.
+    private static FlushBatch readOldJournal(String[] parts) {
+        List<DoseMovement> movements = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            int separator = parts[i].lastIndexOf(':');
+            long doses = Long.parseLong(parts[i].substring(separator + 1));
+            String name = parts[i].substring(0, separator);
+            DoseMovement.Reason reason = DoseMovement.Reason.SHIPMENT;
+            int reasonSeparator = name.lastIndexOf(':');
+            String suffix = name.substring(reasonSeparator + 1);
+            for (DoseMovement.Reason candidate : DoseMovement.Reason.values()) {
+                if (reasonSeparator >= 0 && candidate.name().equals(suffix)) {
+                    reason = candidate;
+                    name = name.substring(0, reasonSeparator);
+                }
+            }
+            movements.add(new DoseMovement(name, reason, doses));
+        }
+        return new FlushBatch(parts[0], movements);
+    }
+
+    private void clearJournal() {
+        try {
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            System.err.println("Could not clear dose journal " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    private static class Stock {
+        private final String name;
+        private final StripedCounter available;
+        // change since the last flush, per DoseMovement.Reason
+        private final AtomicLong[] pending = new AtomicLong[DoseMovement.Reason.values().length];
+
+        Stock(String name, long doses) {
+            this.name = name;
+            this.available = new StripedCounter(doses);
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = new AtomicLong();
+            }
+        }
+
+        AtomicLong pending(DoseMovement.Reason reason) {
+            return pending[reason.ordinal()];
+        }
+    }
+
+    private static class FlushBatch {
+        private final String id;
+        private final List<DoseMovement> movements;
+
+        FlushBatch(String id, List<DoseMovement> movements) {
+            this.id = id;
+            this.movements = movements;
+        }
+    }
+}
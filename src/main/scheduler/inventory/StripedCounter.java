@@ -0,0 +1,88 @@
+package scheduler.inventory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A non-negative counter spread over several cache-line-padded cells, so threads that
+ * increment and decrement it at the same time mostly touch different cells.
+ * Unlike LongAdder it supports a conditional decrement that never takes the total below zero.
+ */
+public class StripedCounter {
+
+    // 16 longs = 128 bytes between two cells, enough to keep them on separate cache lines
+    private static final int PAD = 16;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter(long initial) {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PAD);
+        this.cells.set(0, Math.max(0, initial));
+    }
+
+    public void add(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        cells.getAndAdd(home() * PAD, n);
+    }
+
+    // takes one unit from the home cell, or from any other cell that still has some; false only once
+    // the total was seen at zero
+    public boolean tryDecrement() {
+        int start = home();
+        while (true) {
+            for (int i = 0; i <= mask; i++) {
+                int index = ((start + i) & mask) * PAD;
+                long value;
+                while ((value = cells.get(index)) > 0) {
+                    if (cells.compareAndSet(index, value, value - 1)) {
+                        return true;
+                    }
+                }
+            }
+            // a unit was added to a cell already scanned, or taken just before us; every lost race means
+            // another thread took a unit, so this ends once the units are really gone
+            if (sum() == 0) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // takes n units, or none at all
+    public boolean tryDecrement(long n) {
+        for (long taken = 0; taken < n; taken++) {
+            if (!tryDecrement()) {
+                if (taken > 0) {
+                    add(taken);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    private int home() {
+        // spread thread ids over the cells without allocating
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+}
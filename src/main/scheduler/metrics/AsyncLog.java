@@ -0,0 +1,60 @@
+package scheduler.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Appends lines to a file on a background thread, so the threads that log never wait for the disk.
+// When the queue is full, lines are dropped and counted instead.
+class AsyncLog {
+
+    private static final int QUEUE_SIZE = 10_000;
+
+    private final Path path;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder dropped = new LongAdder();
+
+    AsyncLog(Path path, String threadName) {
+        this.path = path;
+        Thread writer = new Thread(this::writeLoop, threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void append(String line) {
+        if (!queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (true) {
+                writer.write(queue.take());
+                writer.newLine();
+                // write out whatever else is waiting, then flush once
+                String line;
+                while ((line = queue.poll()) != null) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write " + path + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package scheduler.metrics;
+
+import scheduler.util.Config;
+import scheduler.util.Json;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters: a latency histogram, call, error and database round-trip counts for every
+ * command and every kind of JDBC call, and SQL errors by SQL state. Shown by the stats command and,
+ * when StatsFile is set, written to that file as JSON every StatsIntervalMillis.
+ *
+ * Round trips are counted per thread: every JDBC call on the current thread adds one, and the
+ * command that is running on that thread is charged for them.
+ */
+public class Metrics {
+
+    private static Metrics instance = null;
+
+    private final long startedAt = System.nanoTime();
+    private final ConcurrentHashMap<String, Stats> commands = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Stats> jdbcCalls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> sqlErrors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ThreadLocal<long[]> roundTrips = ThreadLocal.withInitial(() -> new long[1]);
+    private ScheduledExecutorService dumper = null;
+
+    private Metrics() {
+    }
+
+    public static synchronized Metrics get() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    // JDBC calls made by this thread so far; take the difference around a command
+    public long getRoundTrips() {
+        return roundTrips.get()[0];
+    }
+
+    public void recordCommand(String command, long nanos, boolean failed, long roundTrips) {
+        commands.computeIfAbsent(command, name -> new Stats()).record(nanos, failed, roundTrips);
+    }
+
+    // error is null when the call succeeded
+    public void recordJdbc(String call, long nanos, SQLException error) {
+        roundTrips.get()[0]++;
+        jdbcCalls.computeIfAbsent(call, name -> new Stats()).record(nanos, error != null, 1);
+        if (error != null) {
+            String state = error.getSQLState() == null ? "unknown" : error.getSQLState();
+            sqlErrors.computeIfAbsent(state, key -> new LongAdder()).increment();
+        }
+    }
+
+    // a plain event counter, such as statementCache.hits
+    public void increment(String counter) {
+        counters.computeIfAbsent(counter, name -> new LongAdder()).increment();
+    }
+
+    public void print(PrintStream out) {
+        double seconds = uptimeSeconds();
+        out.println(String.format("Uptime %.0f s", seconds));
+        printTable(out, "command", commands, seconds);
+        printTable(out, "jdbc call", jdbcCalls, seconds);
+        printCounters(out, "SQL errors by state:", sqlErrors);
+        printCounters(out, "Counters:", counters);
+    }
+
+    private static void printCounters(PrintStream out, String title, Map<String, LongAdder> table) {
+        if (table.isEmpty()) {
+            return;
+        }
+        out.println(title);
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(table).entrySet()) {
+            out.println(String.format("  %-26s %d", counter.getKey(), counter.getValue().sum()));
+        }
+    }
+
+    private static void printTable(PrintStream out, String title, Map<String, Stats> table, double seconds) {
+        if (table.isEmpty()) {
+            return;
+        }
+        out.println(String.format("%-26s %9s %9s %8s %8s %10s %10s %10s %10s", title, "count", "ops/s", "errors",
+                "trips/op", "p50 us", "p99 us", "p999 us", "max us"));
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(table).entrySet()) {
+            Stats stats = entry.getValue();
+            long count = stats.latency.getCount();
+            out.println(String.format("%-26s %9d %9.1f %8d %8.2f %10.1f %10.1f %10.1f %10.1f", entry.getKey(), count,
+                    seconds == 0 ? 0 : count / seconds, stats.errors.sum(),
+                    count == 0 ? 0 : (double) stats.roundTrips.sum() / count,
+                    stats.latency.getPercentileNanos(0.5) / 1e3, stats.latency.getPercentileNanos(0.99) / 1e3,
+                    stats.latency.getPercentileNanos(0.999) / 1e3, stats.latency.getMaxNanos() / 1e3));
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"uptimeSeconds\":")
+                .append(String.format(Locale.ROOT, "%.3f", uptimeSeconds()));
+        appendTable(json.append(",\"commands\":"), commands);
+        appendTable(json.append(",\"jdbc\":"), jdbcCalls);
+        appendCounters(json.append(",\"sqlErrors\":"), sqlErrors);
+        appendCounters(json.append(",\"counters\":"), counters);
+        return json.append('}').toString();
+    }
+
+    private static void appendCounters(StringBuilder json, Map<String, LongAdder> table) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(table).entrySet()) {
+            json.append(separator).append(Json.quote(counter.getKey())).append(':').append(counter.getValue().sum());
+            separator = ",";
+        }
+        json.append('}');
+    }
+
+    private static void appendTable(StringBuilder json, Map<String, Stats> table) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(table).entrySet()) {
+            Stats stats = entry.getValue();
+            json.append(separator).append(Json.quote(entry.getKey()))
+                    .append(":{\"count\":").append(stats.latency.getCount())
+                    .append(",\"errors\":").append(stats.errors.sum())
+                    .append(",\"roundTrips\":").append(stats.roundTrips.sum())
+                    .append(",\"meanMicros\":").append(String.format(Locale.ROOT, "%.1f", stats.latency.getMeanNanos() / 1e3))
+                    .append(",\"p50Micros\":").append(stats.latency.getPercentileNanos(0.5) / 1000)
+                    .append(",\"p99Micros\":").append(stats.latency.getPercentileNanos(0.99) / 1000)
+                    .append(",\"p999Micros\":").append(stats.latency.getPercentileNanos(0.999) / 1000)
+                    .append(",\"maxMicros\":").append(stats.latency.getMaxNanos() / 1000)
+                    .append('}');
+            separator = ",";
+        }
+        json.append('}');
+    }
+
+    // starts the periodic JSON dump if StatsFile is set; the file is replaced atomically each time
+    public synchronized void startDumping() {
+        String file = Config.getString("StatsFile", null);
+        if (file == null || dumper != null) {
+            return;
+        }
+        Path path = Paths.get(file);
+        long intervalMillis = Math.max(100, Config.getLong("StatsIntervalMillis", 60_000));
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleWithFixedDelay(() -> dump(path), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(path), "stats-dump-shutdown"));
+    }
+
+    private void dump(Path path) {
+        try {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temp, (toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write " + path + ": " + e.getMessage());
+        }
+    }
+
+    private double uptimeSeconds() {
+        return (System.nanoTime() - startedAt) / 1e9;
+    }
+
+    private static class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+
+        void record(long nanos, boolean failed, long trips) {
+            latency.record(nanos);
+            roundTrips.add(trips);
+            if (failed) {
+                errors.increment();
+            }
+        }
+    }
+}
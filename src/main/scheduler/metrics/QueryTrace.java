@@ -0,0 +1,82 @@
+package scheduler.metrics;
+
+import scheduler.util.Json;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// one execution of a statement: its SQL, bind parameters, timings and row count
+public class QueryTrace {
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final String sql;
+    // parameter index -> rendered value
+    private final Map<Integer, String> parameters;
+    private final int batchSize;
+    private long executeNanos;
+    private long fetchNanos = 0;
+    private long rows = -1;
+    private String sqlState = null;
+
+    public QueryTrace(String sql, Map<Integer, String> parameters, int batchSize) {
+        this.sql = sql;
+        this.parameters = new TreeMap<>(parameters);
+        this.batchSize = batchSize;
+    }
+
+    public void executed(long nanos, long rows, String sqlState) {
+        this.executeNanos = nanos;
+        this.rows = rows;
+        this.sqlState = sqlState;
+    }
+
+    public void fetched(long nanos) {
+        this.fetchNanos += nanos;
+        this.rows = Math.max(rows, 0) + 1;
+    }
+
+    public void fetchedEnd(long nanos) {
+        this.fetchNanos += nanos;
+        this.rows = Math.max(rows, 0);
+    }
+
+    long getTotalNanos() {
+        return executeNanos + fetchNanos;
+    }
+
+    // Renders a bound value for the logs. Byte arrays are salts and password hashes in this schema,
+    // so they are never written out, only their length.
+    public static String render(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof byte[]) {
+            return "<" + ((byte[]) value).length + " bytes redacted>";
+        }
+        String text = value.toString();
+        if (text.length() > MAX_PARAMETER_LENGTH) {
+            text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+        }
+        return value instanceof String ? "'" + text + "'" : text;
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append("\"sql\":").append(Json.quote(sql)).append(",\"params\":[");
+        String separator = "";
+        for (String parameter : parameters.values()) {
+            json.append(separator).append(Json.quote(parameter));
+            separator = ",";
+        }
+        json.append(']');
+        if (batchSize > 0) {
+            json.append(",\"batchSize\":").append(batchSize);
+        }
+        json.append(",\"executeMicros\":").append(executeNanos / 1000)
+                .append(",\"fetchMicros\":").append(fetchNanos / 1000)
+                .append(",\"rows\":").append(rows);
+        if (sqlState != null) {
+            json.append(",\"sqlState\":").append(Json.quote(sqlState));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package scheduler.metrics;
+
+import scheduler.util.Config;
+import scheduler.util.Json;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Follows the statements each command runs. Both logs are off by default, and then statements keep
+ * neither their SQL nor their parameters. Setting SlowQueryMillis (-1, off, by default) writes every
+ * statement that takes that long or longer, counting execution and fetching, to SlowQueryLog (default
+ * slow-queries.log) with the command that ran it; every statement is captured for that. Setting
+ * TraceSampleRate (0 by default) traces that fraction of commands in full, connection wait and every
+ * statement, to TraceLog (default traces.log); only the sampled commands are captured. Both logs are
+ * written by a background thread.
+ */
+public class Tracer {
+
+    private static Tracer instance = null;
+
+    private final long slowQueryNanos;
+    private final double sampleRate;
+    private final AsyncLog slowQueryLog;
+    private final AsyncLog traceLog;
+    private final ThreadLocal<CommandTrace> current = new ThreadLocal<>();
+
+    private Tracer() {
+        long slowQueryMillis = Config.getLong("SlowQueryMillis", -1);
+        this.slowQueryNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : slowQueryMillis * 1_000_000;
+        this.sampleRate = Config.getDouble("TraceSampleRate", 0);
+        this.slowQueryLog = slowQueryMillis < 0 ? null
+                : new AsyncLog(Paths.get(Config.getString("SlowQueryLog", "slow-queries.log")), "slow-query-log");
+        this.traceLog = sampleRate <= 0 ? null
+                : new AsyncLog(Paths.get(Config.getString("TraceLog", "traces.log")), "trace-log");
+    }
+
+    public static synchronized Tracer get() {
+        if (instance == null) {
+            instance = new Tracer();
+        }
+        return instance;
+    }
+
+    // false when neither log is on
+    public boolean isEnabled() {
+        return slowQueryLog != null || traceLog != null;
+    }
+
+    // whether a statement run now must keep its SQL and parameters: always for the slow-query log, and
+    // for the trace log only inside a sampled command
+    public boolean isCapturing() {
+        if (slowQueryLog != null) {
+            return true;
+        }
+        if (traceLog == null) {
+            return false;
+        }
+        CommandTrace trace = current.get();
+        return trace != null && trace.sampled;
+    }
+
+    public void beginCommand(String command) {
+        if (!isEnabled()) {
+            return;
+        }
+        boolean sampled = traceLog != null && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        current.set(new CommandTrace(command, sampled));
+    }
+
+    public void endCommand(long nanos, boolean failed) {
+        if (!isEnabled()) {
+            return;
+        }
+        CommandTrace trace = current.get();
+        current.remove();
+        if (trace != null && trace.sampled) {
+            trace.json.append("],\"micros\":").append(nanos / 1000).append(",\"ok\":").append(!failed).append('}');
+            traceLog.append(trace.json.toString());
+        }
+    }
+
+    public void connectionAcquired(long nanos) {
+        if (traceLog == null) {
+            return;
+        }
+        CommandTrace trace = current.get();
+        if (trace != null && trace.sampled) {
+            trace.separator();
+            trace.json.append("{\"span\":\"connection\",\"micros\":").append(nanos / 1000).append('}');
+        }
+    }
+
+    public void queryFinished(QueryTrace query) {
+        CommandTrace trace = current.get();
+        String command = trace == null ? "background" : trace.command;
+        if (slowQueryLog != null && query.getTotalNanos() >= slowQueryNanos) {
+            StringBuilder json = new StringBuilder("{\"time\":").append(Json.quote(Instant.now().toString()))
+                    .append(",\"command\":").append(Json.quote(command)).append(',');
+            query.appendJson(json);
+            slowQueryLog.append(json.append('}').toString());
+        }
+        if (trace != null && trace.sampled) {
+            trace.separator();
+            trace.json.append("{\"span\":\"query\",");
+            query.appendJson(trace.json);
+            trace.json.append('}');
+        }
+    }
+
+    private static class CommandTrace {
+        private final String command;
+        private final boolean sampled;
+        private final StringBuilder json;
+        private boolean first = true;
+
+        CommandTrace(String command, boolean sampled) {
+            this.command = command;
+            this.sampled = sampled;
+            this.json = sampled
+                    ? new StringBuilder("{\"time\":").append(Json.quote(Instant.now().toString()))
+                            .append(",\"command\":").append(Json.quote(command)).append(",\"spans\":[")
+                    : null;
+        }
+
+        void separator() {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+// one row of the Reservations table
+public class Appointment {
+    private final int appointmentId;
+    private final String patientUsername;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final Date time;
+
+    public Appointment(int appointmentId, String patientUsername, String caregiverUsername,
+                       String vaccineName, Date time) {
+        this.appointmentId = appointmentId;
+        this.patientUsername = patientUsername;
+        this.caregiverUsername = caregiverUsername;
+        this.vaccineName = vaccineName;
+        this.time = time;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+}
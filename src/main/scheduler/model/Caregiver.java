@@ -1,10 +1,19 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.db.AccountRepository;
+import scheduler.db.Credentials;
+import scheduler.db.Repositories;
+import scheduler.db.TransactionExecutor;
+import scheduler.queue.Waitlist;
 import scheduler.util.Util;
 
-import java.sql.*;
+import java.sql.Date;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
@@ -37,38 +46,41 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        // the builder is given a hash made with the current parameters
+        Credentials credentials = new Credentials(this.username, this.salt, this.hash,
+                Util.getHashStrength(), Util.getKeyLength());
+        TransactionExecutor.getInstance().run("save_caregiver", () -> {
+            Repositories.get().caregivers().save(credentials);
+            return null;
+        });
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        Repositories.get().availabilities().add(d, this.username);
+        AvailabilityIndex.getInstance().add(d, this.username);
+        Waitlist.getInstance().availabilityAdded(d);
+    }
+
+    // uploads many dates in one transaction, skipping dates that are already uploaded
+    // returns the number of dates that were added
+    public int uploadAvailabilities(Collection<Date> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return 0;
         }
+        List<Date> batch = new ArrayList<>(dates);
+        boolean[] added = Repositories.get().availabilities().addAll(this.username, batch);
+
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<Date> addedDates = new ArrayList<>();
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                index.add(batch.get(i), this.username);
+                addedDates.add(batch.get(i));
+            }
+        }
+        // patients waiting for any of the new dates are matched in one pass
+        Waitlist.getInstance().availabilityAdded(addedDates);
+        return addedDates.size();
     }
 
     public static class CaregiverBuilder {
@@ -99,35 +111,35 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            AccountRepository caregivers = Repositories.get().caregivers();
+            Credentials account = caregivers.find(this.username);
+            if (account == null) {
+                return null;
+            }
+            byte[] salt = account.getSalt();
+            byte[] hash = account.getHash();
+            // accounts created before the parameters were stored used the legacy ones
+            int iterations = account.getIterations();
+            int keyLength = account.getKeyLength();
+            if (iterations <= 0 || keyLength <= 0) {
+                iterations = Util.LEGACY_HASH_STRENGTH;
+                keyLength = Util.LEGACY_KEY_LENGTH;
+            }
+            // check if the password matches, hashing on the dedicated pool
+            if (!Util.verifyPassword(password, salt, hash, iterations, keyLength)) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (iterations != Util.getHashStrength() || keyLength != Util.getKeyLength()) {
+                // upgrade the stored hash to the current parameters while we know the password
+                hash = Util.generateHashOnPool(password, salt, Util.getHashStrength(), Util.getKeyLength());
+                caregivers.updateHash(this.username, hash, Util.getHashStrength(), Util.getKeyLength());
+            } else {
+                // a BINARY column pads the hash with zeros, keep only the bytes of the key itself
+                hash = Arrays.copyOf(hash, (keyLength + 7) / 8);
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
         }
     }
 }
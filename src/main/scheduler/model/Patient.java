@@ -1,10 +1,19 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.CaregiverSelector;
+import scheduler.db.AccountRepository;
+import scheduler.db.Credentials;
+import scheduler.db.Repositories;
+import scheduler.db.TransactionExecutor;
+import scheduler.inventory.DoseInventory;
 import scheduler.util.Util;
 
-import java.sql.*;
+import java.sql.Date;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.List;
 
 public class Patient {
     private final String username;
@@ -37,81 +46,62 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        // the builder is given a hash made with the current parameters
+        Credentials credentials = new Credentials(this.username, this.salt, this.hash,
+                Util.getHashStrength(), Util.getKeyLength());
+        TransactionExecutor.getInstance().run("save_patient", () -> {
+            Repositories.get().patients().save(credentials);
+            return null;
+        });
     }
 
-    public void reserve(Date d, String vac) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public Reservation reserve(Date d, String vac) throws SQLException {
+        // pick the caregiver from memory; an empty date may have been uploaded by another process since,
+        // so then the database is asked and what it has goes into the index
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        String preferredCaregiver = null;
+        if (index.covers(d)) {
+            List<String> caregivers = index.getCaregivers(d);
+            if (caregivers.isEmpty()) {
+                caregivers = Repositories.get().availabilities().findCaregivers(d);
+                if (caregivers.isEmpty()) {
+                    return Reservation.failed(Reservation.Status.NO_CAREGIVER, vac, d);
+                }
+                for (String caregiver : caregivers) {
+                    index.add(d, caregiver);
+                }
+            }
+            // spread concurrent reservations over the free caregivers instead of all wanting the first row
+            preferredCaregiver = CaregiverSelector.get().pick(caregivers, this.username);
+        }
 
-        String schedule = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String vaccine = "SELECT Doses FROM Vaccines WHERE Name = ?";
-        String updateAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
-        String updateVaccine = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ?";
-        String insertAppointment = "INSERT INTO Reservations VALUES (?, ?, ?, ?)";
+        // take the dose from the in-process inventory; it is given back if the booking does not go through
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (!inventory.tryTake(vac)) {
+            return Reservation.failed(Reservation.Status.NO_DOSES, vac, d);
+        }
 
+        boolean booked = false;
         try {
-            // Check for available schedule
-            PreparedStatement scheduleStatement = con.prepareStatement(schedule);
-            scheduleStatement.setDate(1, d);
-            ResultSet scheduleResultSet = scheduleStatement.executeQuery();
-
-            // Check for vaccine availability
-            PreparedStatement vaccineStatement = con.prepareStatement(vaccine);
-            vaccineStatement.setString(1, vac);
-            ResultSet vaccineResultSet = vaccineStatement.executeQuery();
-
-            if (!scheduleResultSet.next()) {
-                System.out.println("No Caregiver is Available!");
-            } else if (!vaccineResultSet.next() || vaccineResultSet.getInt(1) < 1) {
-                System.out.println("Not enough available doses!");
-            } else {
-                String caregiverUsername = scheduleResultSet.getString(1);
-
-                // Update caregiver's availability
-                PreparedStatement updateAvailabilityStatement = con.prepareStatement(updateAvailability);
-                updateAvailabilityStatement.setDate(1, d);
-                updateAvailabilityStatement.setString(2, caregiverUsername);
-                updateAvailabilityStatement.executeUpdate();
-
-                // Update vaccine doses
-                PreparedStatement updateVaccineStatement = con.prepareStatement(updateVaccine);
-                updateVaccineStatement.setString(1, vac);
-                updateVaccineStatement.executeUpdate();
-
-                // Create a new appointment
-                PreparedStatement insertAppointmentStatement = con.prepareStatement(insertAppointment, Statement.RETURN_GENERATED_KEYS);
-                insertAppointmentStatement.setString(1, this.getUsername());
-                insertAppointmentStatement.setString(2, caregiverUsername);
-                insertAppointmentStatement.setString(3, vac);
-                insertAppointmentStatement.setDate(4, d);
-                insertAppointmentStatement.executeUpdate();
-
-                // Retrieve and output the appointment ID
-                ResultSet rs = insertAppointmentStatement.getGeneratedKeys();
-                if (rs.next()) {
-                    int appointmentId = rs.getInt(1);
-                    System.out.println("Appointment ID: " + appointmentId + ", Caregiver username: " + caregiverUsername);
-                }
+            inventory.flushShipments(vac);
+            String caregiver = preferredCaregiver;
+            Reservation reservation = TransactionExecutor.getInstance().run("reserve",
+                    () -> Repositories.get().reservations().reserve(this.username, vac, d, caregiver));
+            if (reservation.isBooked()) {
+                booked = true;
+                index.remove(d, reservation.getCaregiverUsername());
+                CaregiverLoad.getInstance().booked(reservation.getCaregiverUsername());
+            } else if (reservation.getStatus() == Reservation.Status.NO_CAREGIVER && preferredCaregiver != null
+                    && !Repositories.get().availabilities().exists(d, preferredCaregiver)) {
+                // the index was out of date for this slot; the booking skips locked slots, so the slot may
+                // only have been held by a booking that is rolled back, and stays in the index if it is there
+                index.remove(d, preferredCaregiver);
             }
-        } catch (SQLException e) {
-            throw new SQLException();
+            return reservation;
         } finally {
-            cm.closeConnection();
+            if (!booked) {
+                inventory.giveBack(vac);
+            }
         }
     }
 
@@ -143,35 +133,35 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            AccountRepository patients = Repositories.get().patients();
+            Credentials account = patients.find(this.username);
+            if (account == null) {
+                return null;
+            }
+            byte[] salt = account.getSalt();
+            byte[] hash = account.getHash();
+            // accounts created before the parameters were stored used the legacy ones
+            int iterations = account.getIterations();
+            int keyLength = account.getKeyLength();
+            if (iterations <= 0 || keyLength <= 0) {
+                iterations = Util.LEGACY_HASH_STRENGTH;
+                keyLength = Util.LEGACY_KEY_LENGTH;
+            }
+            // check if the password matches, hashing on the dedicated pool
+            if (!Util.verifyPassword(password, salt, hash, iterations, keyLength)) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (iterations != Util.getHashStrength() || keyLength != Util.getKeyLength()) {
+                // upgrade the stored hash to the current parameters while we know the password
+                hash = Util.generateHashOnPool(password, salt, Util.getHashStrength(), Util.getKeyLength());
+                patients.updateHash(this.username, hash, Util.getHashStrength(), Util.getKeyLength());
+            } else {
+                // a BINARY column pads the hash with zeros, keep only the bytes of the key itself
+                hash = Arrays.copyOf(hash, (keyLength + 7) / 8);
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+// the outcome of Patient.reserve
+public class Reservation {
+
+    public enum Status {
+        BOOKED,
+        NO_CAREGIVER,
+        NO_DOSES
+    }
+
+    private final Status status;
+    private final int appointmentId;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final Date time;
+
+    private Reservation(Status status, int appointmentId, String caregiverUsername, String vaccineName, Date time) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.vaccineName = vaccineName;
+        this.time = time;
+    }
+
+    public static Reservation booked(int appointmentId, String caregiverUsername, String vaccineName, Date time) {
+        return new Reservation(Status.BOOKED, appointmentId, caregiverUsername, vaccineName, time);
+    }
+
+    public static Reservation failed(Status status, String vaccineName, Date time) {
+        return new Reservation(status, -1, null, vaccineName, time);
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isBooked() {
+        return status == Status.BOOKED;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    // the message shown to the patient
+    public String getMessage() {
+        switch (status) {
+            case BOOKED:
+                return "Appointment ID: " + appointmentId + ", Caregiver username: " + caregiverUsername;
+            case NO_CAREGIVER:
+                return "No Caregiver is Available!";
+            default:
+                return "Not enough available doses!";
+        }
+    }
+}
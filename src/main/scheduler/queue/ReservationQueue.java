@@ -0,0 +1,273 @@
+package scheduler.queue;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.CaregiverSelector;
+import scheduler.db.Repositories;
+import scheduler.db.TransactionExecutor;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+import scheduler.util.Config;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Admission queue for reservations, for bursts such as a vaccine release. submit() returns at once
+ * with a future; worker threads take the waiting requests in micro-batches, group them by date and
+ * vaccine, and book each group with one set-based transaction (ReservationRepository.reserveAll),
+ * so a burst costs one round trip per group instead of one per patient. Each patient prefers the
+ * caregiver the CaregiverSelector picks for them, as in a single reserve.
+ *
+ * Settings (environment variables, all optional):
+ *   ReservationQueueCapacity (10000)    - requests that may wait; submit() fails beyond that
+ *   ReservationBatchSize (100)          - most requests taken into one batch
+ *   ReservationBatchWaitMillis (0)      - how long a worker waits for more requests once the waiting
+ *                                         ones are taken; batches form anyway while workers are busy
+ *   ReservationTimeoutMillis (10000)    - a request still waiting after this fails with a TimeoutException
+ *   ReservationQueueWorkers (2)
+ *
+ * A caller that stops waiting cancels its future. The workers skip cancelled requests, and a booking
+ * made while the caller was giving up is cancelled again, so nobody is booked after being told to
+ * try again.
+ */
+public class ReservationQueue {
+
+    private static ReservationQueue instance = null;
+
+    private final BlockingQueue<Request> queue;
+    private final int batchSize;
+    private final long batchWaitNanos;
+    private final long timeoutMillis;
+
+    private static class Request {
+        private final String patientUsername;
+        private final String vaccineName;
+        private final Date time;
+        private final long deadline;
+        private final CompletableFuture<Reservation> result = new CompletableFuture<>();
+
+        private Request(String patientUsername, String vaccineName, Date time, long deadline) {
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+            this.time = time;
+            this.deadline = deadline;
+        }
+    }
+
+    private ReservationQueue() {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, Config.getInt("ReservationQueueCapacity", 10_000)));
+        this.batchSize = Math.max(1, Config.getInt("ReservationBatchSize", 100));
+        this.batchWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(0, Config.getLong("ReservationBatchWaitMillis", 0)));
+        this.timeoutMillis = Math.max(1, Config.getLong("ReservationTimeoutMillis", 10_000));
+        int workers = Math.max(1, Config.getInt("ReservationQueueWorkers", 2));
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "reservation-queue-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public static synchronized ReservationQueue getInstance() {
+        if (instance == null) {
+            instance = new ReservationQueue();
+        }
+        return instance;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // completes with the reservation, or exceptionally with a RejectedExecutionException if the queue
+    // is full, a TimeoutException if it was not handled in time, or the SQLException of its batch;
+    // cancel it to withdraw the request
+    public CompletableFuture<Reservation> submit(String patientUsername, String vaccineName, Date d) {
+        Request request = new Request(patientUsername, vaccineName, d,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        if (!queue.offer(request)) {
+            Metrics.get().increment("reservationQueue.rejected");
+            request.result.completeExceptionally(new RejectedExecutionException("Reservation queue is full"));
+        }
+        return request.result;
+    }
+
+    private void work() {
+        List<Request> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                // everything that queued up while the last batch was being booked goes into this one
+                queue.drainTo(batch, batchSize - 1);
+                // optionally let the batch fill up a little more
+                long waitUntil = System.nanoTime() + batchWaitNanos;
+                while (batch.size() < batchSize) {
+                    long wait = waitUntil - System.nanoTime();
+                    Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // a bug must not stop the worker or leave callers waiting; book() has given its doses back
+                for (Request request : batch) {
+                    request.result.completeExceptionally(e);
+                }
+                Metrics.get().increment("reservationQueue.errors");
+                System.err.println("Reservation batch failed: " + e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<Request> batch) {
+        Metrics metrics = Metrics.get();
+        metrics.increment("reservationQueue.batches");
+        Map<String, List<Request>> groups = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        for (Request request : batch) {
+            if (request.result.isCancelled()) {
+                metrics.increment("reservationQueue.cancelled");
+            } else if (now - request.deadline > 0) {
+                metrics.increment("reservationQueue.expired");
+                request.result.completeExceptionally(new TimeoutException("Reservation was not handled in time"));
+            } else {
+                groups.computeIfAbsent(request.time + " " + request.vaccineName, key -> new ArrayList<>()).add(request);
+            }
+        }
+        for (List<Request> group : groups.values()) {
+            book(group);
+        }
+    }
+
+    // books one date and vaccine; the doses are taken from the inventory first, as Patient.reserve does
+    private void book(List<Request> group) {
+        String vaccineName = group.get(0).vaccineName;
+        Date d = group.get(0).time;
+        DoseInventory inventory = DoseInventory.getInstance();
+        List<Request> withDose = new ArrayList<>(group.size());
+        List<String> patients = new ArrayList<>(group.size());
+        // doses taken that are neither booked nor given back yet; given back whatever goes wrong
+        int outstanding = 0;
+        try {
+            for (Request request : group) {
+                if (request.result.isDone()) {
+                    // cancelled by its caller meanwhile
+                    continue;
+                }
+                if (inventory.tryTake(vaccineName)) {
+                    outstanding++;
+                    withDose.add(request);
+                    patients.add(request.patientUsername);
+                } else {
+                    request.result.complete(Reservation.failed(Reservation.Status.NO_DOSES, vaccineName, d));
+                }
+            }
+            if (withDose.isEmpty()) {
+                return;
+            }
+            inventory.flushShipments(vaccineName);
+            List<String> preferred = pickCaregivers(patients, d);
+            List<Reservation> reservations = TransactionExecutor.getInstance().run("reserve_all",
+                    () -> Repositories.get().reservations().reserveAll(patients, preferred, vaccineName, d));
+            Metrics.get().increment("reservationQueue.transactions");
+            for (Reservation reservation : reservations) {
+                if (reservation.isBooked()) {
+                    outstanding--;
+                }
+            }
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            for (int i = 0; i < withDose.size(); i++) {
+                Reservation reservation = reservations.get(i);
+                if (reservation.isBooked()) {
+                    index.remove(d, reservation.getCaregiverUsername());
+                    CaregiverLoad.getInstance().booked(reservation.getCaregiverUsername());
+                    if (!withDose.get(i).result.complete(reservation)) {
+                        Metrics.get().increment("reservationQueue.undone");
+                        cancelBooking(withDose.get(i).patientUsername, reservation);
+                    }
+                } else {
+                    inventory.giveBack(vaccineName);
+                    outstanding--;
+                    withDose.get(i).result.complete(reservation);
+                }
+            }
+        } catch (SQLException e) {
+            // nothing was booked; fail every request still waiting
+            for (Request request : group) {
+                if (!request.result.isDone()) {
+                    request.result.completeExceptionally(e);
+                }
+            }
+        } finally {
+            for (; outstanding > 0; outstanding--) {
+                try {
+                    inventory.giveBack(vaccineName);
+                } catch (SQLException giveBackFailed) {
+                    // the inventory is loaded once a dose was taken, so this does not happen
+                }
+            }
+        }
+    }
+
+    // the CaregiverSelector's pick for each patient, as reserve makes it, out of the caregivers the index
+    // has for the date; a caregiver is picked only once, and patients beyond them get null (any slot)
+    private static List<String> pickCaregivers(List<String> patients, Date d) {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<String> free = index.covers(d) ? index.getCaregivers(d) : new ArrayList<>();
+        List<String> picks = new ArrayList<>(patients.size());
+        for (String patient : patients) {
+            if (free.isEmpty()) {
+                picks.add(null);
+            } else {
+                String caregiver = CaregiverSelector.get().pick(free, patient);
+                free.remove(caregiver);
+                picks.add(caregiver);
+            }
+        }
+        return picks;
+    }
+
+    // cancels a booking nobody wants any more, as if the patient had done it: the caller gave up while
+    // the request was being booked and was told to try again, or the Waitlist booked a patient who had
+    // meanwhile booked by hand
+    void cancelBooking(String patientUsername, Reservation reservation) {
+        try {
+            Appointment appointment = TransactionExecutor.getInstance().run("cancel",
+                    () -> Repositories.get().reservations().cancel(reservation.getAppointmentId(),
+                            patientUsername, null));
+            if (appointment == null) {
+                // the patient found and cancelled it already
+                return;
+            }
+            AvailabilityIndex.getInstance().add(appointment.getTime(), appointment.getCaregiverUsername());
+            CaregiverLoad.getInstance().cancelled(appointment.getCaregiverUsername());
+            DoseInventory.getInstance().returned(appointment.getVaccineName(), 1);
+            Waitlist waitlist = Waitlist.getInstance();
+            waitlist.dosesAdded(appointment.getVaccineName());
+            waitlist.availabilityAdded(appointment.getTime());
+        } catch (SQLException e) {
+            Metrics.get().increment("reservationQueue.errors");
+            System.err.println("Could not cancel appointment " + reservation.getAppointmentId()
+                    + " of a withdrawn reservation: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package scheduler.queue;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Patients waiting for a date and vaccine that had no caregiver or no doses when they tried to book.
+ * Instead of the patients polling, the events that free capacity trigger matching for just the keys
+ * they touch: availabilityAdded for uploads and cancellations (the date's keys), dosesAdded for
+ * add_doses (the vaccine's keys). A background thread takes as many waiting patients as the date
+ * has free caregivers and the vaccine has doses and books them through the ReservationQueue, which
+ * turns them into set-based batches; a large upload is matched for all its dates in one pass.
+ *
+ * Waiting patients are kept in this process only, in the order they joined; a patient who could not
+ * be booked after all goes back to the front. A patient who books the date and vaccine by hand is
+ * withdrawn; if the waitlist was booking them at that moment, its appointment is cancelled again.
+ */
+public class Waitlist {
+
+    private static Waitlist instance = null;
+
+    private static final class Key {
+        private final Date time;
+        private final String vaccineName;
+
+        private Key(Date time, String vaccineName) {
+            this.time = time;
+            this.vaccineName = vaccineName;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return time.equals(key.time) && vaccineName.equalsIgnoreCase(key.vaccineName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(time, vaccineName.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // guarded by this: the queue per key, and the keys per date and per vaccine so an event finds its keys
+    private final Map<Key, ArrayDeque<String>> waiting = new HashMap<>();
+    private final Map<Date, Set<Key>> byDate = new HashMap<>();
+    private final Map<String, Set<Key>> byVaccine = new HashMap<>();
+    // keys that are being matched, so an event that comes in meanwhile does not book them twice over
+    private final Set<Key> matching = new HashSet<>();
+    // patients withdrawn while their key was being matched, whose waitlist booking must not stand
+    private final Map<Key, Set<String>> withdrawn = new HashMap<>();
+    private final ExecutorService matcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "waitlist-matcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Waitlist() {
+    }
+
+    public static synchronized Waitlist getInstance() {
+        if (instance == null) {
+            instance = new Waitlist();
+        }
+        return instance;
+    }
+
+    // false if the patient is already waiting for this date and vaccine
+    public synchronized boolean add(String patientUsername, Date d, String vaccineName) {
+        ArrayDeque<String> patients = queueFor(new Key(d, vaccineName));
+        if (patients.contains(patientUsername)) {
+            return false;
+        }
+        patients.addLast(patientUsername);
+        Metrics.get().increment("waitlist.added");
+        return true;
+    }
+
+    // the patient booked the date and vaccine themselves, so they no longer wait for it
+    public synchronized void withdraw(String patientUsername, Date d, String vaccineName) {
+        Key key = new Key(d, vaccineName);
+        ArrayDeque<String> queue = waiting.get(key);
+        if (queue != null && queue.remove(patientUsername)) {
+            Metrics.get().increment("waitlist.withdrawn");
+            if (queue.isEmpty()) {
+                remove(key);
+            }
+        }
+        if (matching.contains(key)) {
+            withdrawn.computeIfAbsent(key, k -> new HashSet<>()).add(patientUsername);
+        }
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (ArrayDeque<String> patients : waiting.values()) {
+            size += patients.size();
+        }
+        return size;
+    }
+
+    // a caregiver slot was uploaded or given back on the date
+    public void availabilityAdded(Date d) {
+        availabilityAdded(List.of(d));
+    }
+
+    // bulk form for uploads of many dates: one pass over all their keys
+    public void availabilityAdded(Collection<Date> dates) {
+        List<Key> keys = new ArrayList<>();
+        synchronized (this) {
+            for (Date d : dates) {
+                Set<Key> dateKeys = byDate.get(d);
+                if (dateKeys != null) {
+                    keys.addAll(dateKeys);
+                }
+            }
+        }
+        schedule(keys);
+    }
+
+    public void dosesAdded(String vaccineName) {
+        List<Key> keys;
+        synchronized (this) {
+            Set<Key> vaccineKeys = byVaccine.get(vaccineName.toLowerCase(Locale.ROOT));
+            keys = vaccineKeys == null ? new ArrayList<>() : new ArrayList<>(vaccineKeys);
+        }
+        schedule(keys);
+    }
+
+    private void schedule(List<Key> keys) {
+        if (!keys.isEmpty()) {
+            matcher.execute(() -> match(keys));
+        }
+    }
+
+    // runs on the matcher thread
+    private void match(List<Key> keys) {
+        List<Key> taken = new ArrayList<>();
+        List<CompletableFuture<?>> bookings = new ArrayList<>();
+        boolean[] progress = {false};
+        for (Key key : keys) {
+            List<String> patients = take(key, capacity(key));
+            if (patients == null) {
+                continue;
+            }
+            taken.add(key);
+            for (String patient : patients) {
+                bookings.add(ReservationQueue.getInstance().submit(patient, key.vaccineName, key.time)
+                        .handle((reservation, error) -> {
+                            boolean booked = reservation != null && reservation.isBooked();
+                            if (wasWithdrawn(key, patient)) {
+                                if (booked) {
+                                    // they have the appointment they booked by hand already
+                                    ReservationQueue.getInstance().cancelBooking(patient, reservation);
+                                }
+                            } else if (booked) {
+                                Metrics.get().increment("waitlist.matched");
+                                progress[0] = true;
+                            } else {
+                                putBack(key, patient);
+                            }
+                            return null;
+                        }));
+            }
+        }
+        // the keys can be matched again once these bookings are known; if some went through, the
+        // capacity that arrived in the meantime is used right away
+        CompletableFuture.allOf(bookings.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            synchronized (this) {
+                matching.removeAll(taken);
+                withdrawn.keySet().removeAll(taken);
+            }
+            if (progress[0]) {
+                schedule(taken);
+            }
+        });
+    }
+
+    // how many waiting patients the key can take now, as far as memory knows
+    private int capacity(Key key) {
+        int caregivers = Integer.MAX_VALUE;
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.covers(key.time)) {
+            caregivers = index.getCaregivers(key.time).size();
+        }
+        int doses;
+        try {
+            Integer available = DoseInventory.getInstance().getAvailableDoses(key.vaccineName);
+            doses = available == null ? 0 : available;
+        } catch (SQLException e) {
+            doses = 0;
+        }
+        return Math.min(caregivers, doses);
+    }
+
+    // null if there is nothing to take, or the key is already being matched
+    private synchronized List<String> take(Key key, int count) {
+        List<String> patients = new ArrayList<>();
+        ArrayDeque<String> queue = waiting.get(key);
+        if (queue == null || count <= 0 || !matching.add(key)) {
+            return null;
+        }
+        while (patients.size() < count && !queue.isEmpty()) {
+            patients.add(queue.pollFirst());
+        }
+        if (queue.isEmpty()) {
+            remove(key);
+        }
+        return patients;
+    }
+
+    private synchronized boolean wasWithdrawn(Key key, String patient) {
+        Set<String> patients = withdrawn.get(key);
+        return patients != null && patients.contains(patient);
+    }
+
+    // a patient that could not be booked waits again, ahead of those who joined later
+    private synchronized void putBack(Key key, String patient) {
+        ArrayDeque<String> queue = queueFor(key);
+        if (!queue.contains(patient)) {
+            queue.addFirst(patient);
+        }
+    }
+
+    private ArrayDeque<String> queueFor(Key key) {
+        ArrayDeque<String> queue = waiting.get(key);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            waiting.put(key, queue);
+            byDate.computeIfAbsent(key.time, date -> new LinkedHashSet<>()).add(key);
+            String vaccine = key.vaccineName.toLowerCase(Locale.ROOT);
+            byVaccine.computeIfAbsent(vaccine, name -> new LinkedHashSet<>()).add(key);
+        }
+        return queue;
+    }
+
+    private void remove(Key key) {
+        waiting.remove(key);
+        Set<Key> dateKeys = byDate.get(key.time);
+        dateKeys.remove(key);
+        if (dateKeys.isEmpty()) {
+            byDate.remove(key.time);
+        }
+        String vaccine = key.vaccineName.toLowerCase(Locale.ROOT);
+        Set<Key> vaccineKeys = byVaccine.get(vaccine);
+        vaccineKeys.remove(key);
+        if (vaccineKeys.isEmpty()) {
+            byVaccine.remove(vaccine);
+        }
+    }
+}
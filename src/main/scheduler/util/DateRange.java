@@ -0,0 +1,71 @@
+package scheduler.util;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class DateRange {
+
+    // longest range accepted in one command, to catch typos like 2062 for 2026
+    private static final int MAX_DAYS = 731;
+
+    // expands <from> <to> [daily|weekdays|weekends|mon,wed,fri] into the matching dates, both ends included
+    public static List<Date> expand(Date from, Date to, String recurrence) {
+        check(from, to);
+        LocalDate start = from.toLocalDate();
+        LocalDate end = to.toLocalDate();
+        Set<DayOfWeek> days = parseRecurrence(recurrence);
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (days.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        return dates;
+    }
+
+    // throws IllegalArgumentException unless from..to is a range a command may ask for
+    public static void check(Date from, Date to) {
+        LocalDate start = from.toLocalDate();
+        LocalDate end = to.toLocalDate();
+        if (end.isBefore(start)) {
+            throw new IllegalArgumentException("End date is before start date");
+        }
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+            throw new IllegalArgumentException("Date range is too long");
+        }
+    }
+
+    private static Set<DayOfWeek> parseRecurrence(String recurrence) {
+        if (recurrence == null || recurrence.equalsIgnoreCase("daily")) {
+            return EnumSet.allOf(DayOfWeek.class);
+        }
+        if (recurrence.equalsIgnoreCase("weekdays")) {
+            return EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+        }
+        if (recurrence.equalsIgnoreCase("weekends")) {
+            return EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY);
+        }
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : recurrence.split(",")) {
+            days.add(parseDay(name.trim().toLowerCase(Locale.ROOT)));
+        }
+        return days;
+    }
+
+    private static DayOfWeek parseDay(String name) {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            String fullName = day.name().toLowerCase(Locale.ROOT);
+            if (name.length() >= 3 && fullName.startsWith(name)) {
+                return day;
+            }
+        }
+        throw new IllegalArgumentException("Unknown day of week: " + name);
+    }
+}
@@ -2,40 +2,109 @@ package scheduler.util;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Util {
 
     // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    // the parameters every stored hash used before they were recorded per user
+    public static final int LEGACY_HASH_STRENGTH = 10;
+    public static final int LEGACY_KEY_LENGTH = 16;
+
+    // parameters for new hashes; a user whose stored parameters differ is rehashed at the next login
+    private static final int HASH_STRENGTH = Config.getInt("HashIterations", LEGACY_HASH_STRENGTH);
+    private static final int KEY_LENGTH = Config.getInt("HashKeyLength", LEGACY_KEY_LENGTH);
+    private static final long HASH_TIMEOUT_MILLIS = Config.getLong("HashTimeoutMillis", 10_000);
+
+    // creating these is far more expensive than using them, so every thread keeps its own
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    public static int getHashStrength() {
+        return HASH_STRENGTH;
+    }
+
+    public static int getKeyLength() {
+        return KEY_LENGTH;
+    }
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.get().nextBytes(salt);
         return salt;
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
+        return generateHash(password, salt, HASH_STRENGTH, KEY_LENGTH);
+    }
+
+    public static byte[] generateHash(String password, byte[] salt, int hashStrength, int keyLength) {
         // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, hashStrength, keyLength);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
-        return hash;
+    }
+
+    // Hashes on the dedicated hashing pool and waits for the result, so a burst of logins queues up
+    // there instead of taking every thread that handles commands. Throws IllegalStateException when
+    // the pool is saturated or the hash does not finish within HashTimeoutMillis.
+    public static byte[] generateHashOnPool(String password, byte[] salt, int hashStrength, int keyLength) {
+        Future<byte[]> hash;
+        try {
+            hash = HashPool.EXECUTOR.submit(() -> generateHash(password, salt, hashStrength, keyLength));
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Too many password checks in progress");
+        }
+        try {
+            return hash.get(HASH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            hash.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing");
+        } catch (ExecutionException | TimeoutException e) {
+            hash.cancel(true);
+            throw new IllegalStateException("Password check did not complete");
+        }
+    }
+
+    // checks a password against a stored hash; the stored hash may be zero-padded by a BINARY column
+    public static boolean verifyPassword(String password, byte[] salt, byte[] storedHash,
+                                         int hashStrength, int keyLength) {
+        byte[] calculatedHash = generateHashOnPool(password, salt, hashStrength, keyLength);
+        if (storedHash.length < calculatedHash.length) {
+            return false;
+        }
+        return hashEquals(Arrays.copyOf(storedHash, calculatedHash.length), calculatedHash);
+    }
+
+    // compares in time that does not depend on where the first difference is
+    public static boolean hashEquals(byte[] a, byte[] b) {
+        return MessageDigest.isEqual(a, b);
     }
 
     public static byte[] trim(byte[] bytes)
@@ -48,4 +117,21 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // created on first use; HashThreads threads with at most HashQueueSize waiting hashes
+    private static class HashPool {
+        private static final ThreadPoolExecutor EXECUTOR = create();
+
+        private static ThreadPoolExecutor create() {
+            int threads = Math.max(1, Config.getInt("HashThreads", Runtime.getRuntime().availableProcessors()));
+            int queueSize = Math.max(1, Config.getInt("HashQueueSize", 1024));
+            AtomicInteger count = new AtomicInteger();
+            return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread t = new Thread(r, "password-hash-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
 }
@@ -0,0 +1,198 @@
+package scheduler.db;
+
+import scheduler.model.Reservation;
+import scheduler.util.DateRange;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Books from many threads at once, straight through the ReservationRepository so the in-process dose
+ * count does not turn anyone away first, and checks what the backend stored:
+ *   - no caregiver slot is booked twice, and every booking that was reported is stored
+ *   - the dose balance never goes below zero and is the seeded doses minus the bookings
+ *   - every claimed slot is gone from Availabilities and every other one is still there
+ * One case has fewer doses than slots and one fewer slots than doses, so both limits are hit while the
+ * threads race; half of the threads book one patient at a time, the other half in batches.
+ *
+ *   java scheduler.db.ReservationConcurrencyTest
+ *
+ * Runs against the configured backend on data of its own. Throws an AssertionError listing every
+ * failed check, so the JVM exits with a non-zero status.
+ */
+public class ReservationConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int ATTEMPTS = 10;
+    private static final int BATCH = 4;
+
+    public static void main(String[] args) throws Exception {
+        Repositories.get().migrate();
+        List<String> failures = new ArrayList<>();
+        // 3 days of 8 caregivers = 24 slots
+        failures.addAll(run("doses", 8, 3, 10));
+        failures.addAll(run("slots", 4, 2, 1_000));
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.size() + " checks failed:\n  " + String.join("\n  ", failures));
+        }
+        System.out.println("PASS");
+    }
+
+    private static List<String> run(String name, int caregivers, int days, int doses) throws Exception {
+        String prefix = "concurrency_" + name + "_" + Long.toString(System.currentTimeMillis(), 36);
+        String vaccine = prefix + "_vaccine";
+        LocalDate firstDay = LocalDate.of(2200, 1, 1).plusDays(ThreadLocalRandom.current().nextInt(300_000));
+        Date from = Date.valueOf(firstDay);
+        Date to = Date.valueOf(firstDay.plusDays(days - 1));
+        List<Date> dates = DateRange.expand(from, to, null);
+        seed(prefix, vaccine, caregivers, dates, doses);
+
+        List<Reservation> booked = Collections.synchronizedList(new ArrayList<>());
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String patient = prefix + "_patient_" + t;
+            boolean batched = t % 2 == 1;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ATTEMPTS; i++) {
+                        Date d = dates.get(ThreadLocalRandom.current().nextInt(dates.size()));
+                        // random preferences, so several bookings want the same caregiver at once
+                        List<String> preferred = new ArrayList<>();
+                        for (int j = 0; j < BATCH; j++) {
+                            int pick = ThreadLocalRandom.current().nextInt(caregivers + 1);
+                            preferred.add(pick == caregivers ? null : prefix + "_caregiver_" + pick);
+                        }
+                        List<Reservation> reservations = batched
+                                ? TransactionExecutor.getInstance().run("reserve_all",
+                                        () -> Repositories.get().reservations().reserveAll(
+                                                Collections.nCopies(BATCH, patient), preferred, vaccine, d))
+                                : Collections.singletonList(TransactionExecutor.getInstance().run("reserve",
+                                        () -> Repositories.get().reservations().reserve(patient, vaccine, d,
+                                                preferred.get(0))));
+                        for (Reservation reservation : reservations) {
+                            if (reservation.isBooked()) {
+                                booked.add(reservation);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, prefix + "-" + t);
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (Throwable e : errors) {
+            failures.add(name + ": a booking failed: " + e);
+        }
+        Set<String> reported = new HashSet<>();
+        for (Reservation reservation : booked) {
+            if (!reported.add(reservation.getCaregiverUsername().toLowerCase() + " " + reservation.getTime())) {
+                failures.add(name + ": " + reservation.getCaregiverUsername() + " was booked twice on "
+                        + reservation.getTime());
+            }
+        }
+        Set<String> stored = storedAppointments(prefix, caregivers, from, to, failures, name);
+        if (!stored.equals(reported)) {
+            failures.add(name + ": " + reported.size() + " bookings reported but " + stored.size()
+                    + " different ones stored");
+        }
+        int slots = caregivers * dates.size();
+        int expectedBookings = Math.min(slots, doses);
+        if (booked.size() != expectedBookings) {
+            // every thread asks for more than there is, so whichever runs out first must run out
+            failures.add(name + ": " + booked.size() + " booked, expected " + expectedBookings);
+        }
+        Map<String, Integer> balances = Repositories.get().vaccines().findAll();
+        Integer balance = balances.get(vaccine);
+        if (balance == null || balance < 0) {
+            failures.add(name + ": the dose balance is " + balance);
+        } else if (balance != doses - booked.size()) {
+            failures.add(name + ": " + balance + " doses left after " + booked.size() + " of " + doses
+                    + " were booked");
+        }
+        int free = countFreeSlots(prefix, from, to);
+        if (free + stored.size() != slots) {
+            failures.add(name + ": " + free + " free slots and " + stored.size() + " appointments, but "
+                    + slots + " slots");
+        }
+        return failures;
+    }
+
+    private static void seed(String prefix, String vaccine, int caregivers, List<Date> dates, int doses)
+            throws SQLException {
+        List<Credentials> patients = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            patients.add(credentials(prefix + "_patient_" + t));
+        }
+        Repositories.get().patients().saveAll(patients);
+        List<Credentials> accounts = new ArrayList<>();
+        for (int i = 0; i < caregivers; i++) {
+            accounts.add(credentials(prefix + "_caregiver_" + i));
+        }
+        Repositories.get().caregivers().saveAll(accounts);
+        for (Credentials caregiver : accounts) {
+            Repositories.get().availabilities().addAll(caregiver.getUsername(), dates);
+        }
+        Repositories.get().vaccines().save(vaccine, doses);
+    }
+
+    private static Credentials credentials(String username) {
+        byte[] salt = Util.generateSalt();
+        return new Credentials(username, salt, Util.generateHash("test", salt), Util.getHashStrength(),
+                Util.getKeyLength());
+    }
+
+    // caregiver and date of every stored appointment of the run; duplicates are reported as failures
+    private static Set<String> storedAppointments(String prefix, int caregivers, Date from, Date to,
+                                                  List<String> failures, String name) throws SQLException {
+        Set<String> stored = new HashSet<>();
+        for (int i = 0; i < caregivers; i++) {
+            int afterId = 0;
+            int[] lastId = {0};
+            while (true) {
+                int page = Repositories.get().reservations().forEachByCaregiver(prefix + "_caregiver_" + i,
+                        afterId, from, to, 100, (id, patient, caregiver, vaccineName, time) -> {
+                            lastId[0] = id;
+                            if (!stored.add(caregiver.toLowerCase() + " " + time)) {
+                                failures.add(name + ": " + caregiver + " is stored twice on " + time);
+                            }
+                        });
+                if (page < 100) {
+                    break;
+                }
+                afterId = lastId[0];
+            }
+        }
+        return stored;
+    }
+
+    private static int countFreeSlots(String prefix, Date from, Date to) throws SQLException {
+        int[] free = {0};
+        Repositories.get().availabilities().forEachFrom(from, (time, caregiver) -> {
+            if (!time.after(to) && caregiver.startsWith(prefix + "_caregiver_")) {
+                free[0]++;
+            }
+        });
+        return free[0];
+    }
+}